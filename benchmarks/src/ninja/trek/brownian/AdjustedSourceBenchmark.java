@@ -0,0 +1,49 @@
+package ninja.trek.brownian;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** Splitting the drawn source lines from scratch, and updating them after drawing or erasing one. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdjustedSourceBenchmark {
+	@Param({"10", "100", "1000"})
+	public int sources;
+
+	private GuideLines lines;
+
+	@Setup
+	public void setup() {
+		lines = Fixtures.scatteredSources(sources, 1024, 1024);
+	}
+
+	@Benchmark
+	public int makeAdjustedSourceLines() {
+		lines.makeAdjustedSourceLines();
+		return lines.adjustedSource.size;
+	}
+
+	@Benchmark
+	public int drawAndErase() {
+		lines.source.add(100, 100, 300, 200);
+		lines.updateAdjustedSourceLines();
+		lines.source.removeIndex(lines.source.size - 1);
+		lines.updateAdjustedSourceLines();
+		return lines.adjustedSource.size;
+	}
+}
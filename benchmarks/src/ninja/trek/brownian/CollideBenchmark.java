@@ -0,0 +1,64 @@
+package ninja.trek.brownian;
+
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Vector2;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** One walker step against trees of growing size: collide for steps near the tree, setClosestPoint anywhere. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollideBenchmark {
+	private static final int PROBES = 1024;
+
+	@Param({"1000", "10000", "100000"})
+	public int segments;
+
+	private TreeGenerator generator;
+	private final Vector2[] starts = new Vector2[PROBES], ends = new Vector2[PROBES], points = new Vector2[PROBES];
+	private final Vector2 coll = new Vector2(), target = new Vector2();
+	private final int[] index = new int[1];
+	private int next;
+
+	@Setup
+	public void setup() {
+		int size = Fixtures.canvasSize(segments);
+		generator = Fixtures.generator(segments, size, size);
+		SegmentStore tree = generator.tree;
+		SplitRandom random = new SplitRandom(Fixtures.SEED);
+		for (int i = 0; i < PROBES; i++) {
+			int near = random.nextInt(tree.size);
+			starts[i] = new Vector2(tree.x0(near) + random.random(-20f, 20f), tree.y0(near) + random.random(-20f, 20f));
+			float angle = random.random(MathUtils.PI2), length = random.random(5f, 10f);
+			ends[i] = new Vector2(starts[i]).add(MathUtils.cos(angle) * length, MathUtils.sin(angle) * length);
+			points[i] = new Vector2(random.random(size), random.random(size));
+		}
+	}
+
+	@Benchmark
+	public int collide() {
+		int i = next++ & (PROBES - 1);
+		return generator.collide(starts[i], ends[i], coll, index) ? index[0] : -3;
+	}
+
+	@Benchmark
+	public Vector2 setClosestPoint() {
+		generator.setClosestPoint(target, points[next++ & (PROBES - 1)]);
+		return target;
+	}
+}
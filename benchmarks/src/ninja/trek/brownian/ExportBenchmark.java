@@ -0,0 +1,57 @@
+package ninja.trek.brownian;
+
+import com.badlogic.gdx.files.FileHandle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/** Writes the tree to a temporary file. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExportBenchmark {
+	@Param({"1000", "10000", "100000"})
+	public int segments;
+
+	private SegmentStore tree;
+	private int size;
+	private FileHandle file;
+
+	@Setup
+	public void setup() {
+		size = Fixtures.canvasSize(segments);
+		tree = Fixtures.tree(segments, size, size);
+		try {
+			file = new FileHandle(File.createTempFile("tree", ".svg"));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	public long exportToSVG() {
+		SVGExporter.exportToSVG(tree, size, size, file);
+		return file.length();
+	}
+}
@@ -0,0 +1,76 @@
+package ninja.trek.brownian;
+
+import com.badlogic.gdx.math.MathUtils;
+
+/** Canned guide lines and trees for the benchmarks. Everything is built from a fixed seed, so runs compare. */
+public class Fixtures {
+	public static final long SEED = 1;
+
+	/** A source line across the top, split into pieces, and a destination line along the bottom. */
+	public static GuideLines lines(int width, int height) {
+		GuideLines lines = new GuideLines();
+		int pieces = 4;
+		for (int i = 0; i < pieces; i++)
+			lines.source.add(width * i / (float)pieces, height - 8, width * (i + 1) / (float)pieces, height - 8);
+		lines.dest.add(0, 8, width, 8);
+		lines.exclude.add(width * 0.4f, height * 0.5f, width * 0.6f, height * 0.5f);
+		lines.linesVersion++;
+		lines.makeAdjustedSourceLines();
+		return lines;
+	}
+
+	/** Source lines of varied length and direction scattered over the canvas. */
+	public static GuideLines scatteredSources(int count, int width, int height) {
+		SplitRandom random = new SplitRandom(SEED);
+		GuideLines lines = new GuideLines();
+		for (int i = 0; i < count; i++) {
+			float x = random.random(width), y = random.random(height);
+			float length = random.random(20f, 200f), angle = random.random(MathUtils.PI2);
+			lines.source.add(x, y, x + MathUtils.cos(angle) * length, y + MathUtils.sin(angle) * length);
+		}
+		return lines;
+	}
+
+	/** Side of a square canvas holding size segments at about the density of a finished tree. */
+	public static int canvasSize(int size) {
+		return Math.max(128, (int)(Math.sqrt(size) * 10));
+	}
+
+	/**
+	 * A tree of size segments for {@link #lines(int, int)}: wiggly trunks from the destination line up across the
+	 * source line, with random branches hanging off them. Each segment ends on the start of its parent, like a
+	 * walker sticking, but crossings are not checked.
+	 */
+	public static SegmentStore tree(int size, int width, int height) {
+		SplitRandom random = new SplitRandom(SEED);
+		SegmentStore tree = new SegmentStore(size);
+		int trunks = Math.max(1, width / 32);
+		for (int t = 0; t < trunks && tree.size < size; t++) {
+			float x = (t + 0.5f) * width / trunks, y = 8;
+			int parent = -1;
+			while (y < height - 8 && tree.size < size) {
+				float startX = MathUtils.clamp(x + random.random(-3f, 3f), 0, width);
+				float startY = y + random.random(5f, 10f);
+				parent = tree.add(startX, startY, x, y, parent);
+				x = startX;
+				y = startY;
+			}
+		}
+		while (tree.size < size) {
+			int parent = random.nextInt(tree.size);
+			float x = tree.x0(parent), y = tree.y0(parent);
+			float length = random.random(5f, 10f), angle = random.random(MathUtils.PI2);
+			float startX = MathUtils.clamp(x + MathUtils.cos(angle) * length, 0, width);
+			float startY = MathUtils.clamp(y + MathUtils.sin(angle) * length, 0, height);
+			tree.add(startX, startY, x, y, parent);
+		}
+		return tree;
+	}
+
+	/** Generator with the canned lines and a tree of size segments already grown. */
+	public static TreeGenerator generator(int size, int width, int height) {
+		TreeGenerator generator = new TreeGenerator(width, height, lines(width, height));
+		generator.setTree(tree(size, width, height));
+		return generator;
+	}
+}
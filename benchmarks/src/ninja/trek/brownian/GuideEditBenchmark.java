@@ -0,0 +1,59 @@
+package ninja.trek.brownian;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** Picking the guide line nearest a click, and drawing and erasing one, among many lines over a grown tree. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GuideEditBenchmark {
+	private static final int SIZE = 2048, SEGMENTS = 50000;
+
+	@Param({"100", "1000", "10000"})
+	public int sources;
+
+	private GuideLines lines;
+	private TreeGenerator generator;
+	private final SplitRandom random = new SplitRandom(Fixtures.SEED);
+	private final int[] index = new int[1];
+
+	@Setup
+	public void setup() {
+		lines = Fixtures.scatteredSources(sources, SIZE, SIZE);
+		lines.dest.add(0, 8, SIZE, 8);
+		lines.makeAdjustedSourceLines();
+		generator = new TreeGenerator(SIZE, SIZE, lines);
+		generator.setTree(Fixtures.tree(SEGMENTS, SIZE, SIZE));
+		generator.updateThickness();
+	}
+
+	@Benchmark
+	public int pick() {
+		lines.pick(random.random(SIZE), random.random(SIZE), Float.MAX_VALUE, index);
+		return index[0];
+	}
+
+	@Benchmark
+	public int drawAndErase() {
+		int i = lines.addLine(lines.source, 100, 100, 300, 200);
+		generator.updateThickness();
+		lines.removeLine(lines.source, i);
+		generator.updateThickness();
+		return lines.adjustedSource.size;
+	}
+}
@@ -0,0 +1,41 @@
+package ninja.trek.brownian;
+
+import com.badlogic.gdx.utils.IntArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PostCalculationsBenchmark {
+	@Param({"1000", "10000", "100000"})
+	public int segments;
+
+	private TreeGenerator generator;
+
+	@Setup
+	public void setup() {
+		int size = Fixtures.canvasSize(segments);
+		generator = Fixtures.generator(segments, size, size);
+	}
+
+	@Benchmark
+	public IntArray postCalculations() {
+		generator.postCalculations();
+		return generator.thickness;
+	}
+}
@@ -0,0 +1,80 @@
+package ninja.trek.brownian;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** Grows a whole tree per invocation; the lines counter gives the lines per second. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessTreeBenchmark {
+	private static final int LINES = 1000;
+
+	@Param({"random", "launch", "source", "nearest"})
+	public String mode;
+
+	@Param({"1", "4"})
+	public int threads;
+
+	@Param({"false", "true"})
+	public boolean leap;
+
+	private GuideLines lines;
+	private TreeGenerator generator;
+	private int size;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long lines;
+
+		@Setup(Level.Iteration)
+		public void clear() {
+			lines = 0;
+		}
+	}
+
+	@Setup
+	public void setup() {
+		size = Fixtures.canvasSize(LINES);
+		lines = Fixtures.lines(size, size);
+		generator = new TreeGenerator(size, size, lines);
+		generator.setParallelism(threads);
+		generator.setLeaping(leap);
+	}
+
+	@TearDown
+	public void tearDown() {
+		generator.dispose();
+	}
+
+	@Benchmark
+	public int processTree(Counters counters) {
+		//clears the stopped sources, as resetting in the app does
+		lines.makeAdjustedSourceLines();
+		generator.reset(size, size);
+		boolean nearest = mode.equals("nearest"), launch = mode.equals("launch"), randomStart = launch || mode.equals("random");
+		generator.setLaunching(launch);
+		generator.createTree(nearest, LINES, 45, 1000, randomStart, 5, 10, Fixtures.SEED);
+		generator.generate();
+		counters.lines += generator.getCreatedLines();
+		return generator.tree.size;
+	}
+}
@@ -0,0 +1,54 @@
+package ninja.trek.brownian;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** Picking a walker's start among source pieces as they stop, against drawing until a running one comes up. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SourcePickBenchmark {
+	@Param({"0", "0.9", "0.99", "0.999"})
+	public float stopped;
+
+	private GuideLines lines;
+	private final SplitRandom random = new SplitRandom(Fixtures.SEED);
+
+	@Setup
+	public void setup() {
+		lines = Fixtures.scatteredSources(1000, 1024, 1024);
+		lines.sourceSegmentLength = 2;
+		lines.makeAdjustedSourceLines();
+		int size = lines.adjustedSource.size;
+		for (int i = 0; i < size; i++)
+			if (random.nextFloat() < stopped) lines.stopSource(i);
+	}
+
+	@Benchmark
+	public int weighted() {
+		return lines.pickSource(random.nextDouble());
+	}
+
+	@Benchmark
+	public int rejection() {
+		int size = lines.adjustedSource.size;
+		while (true) {
+			int i = random.random(size - 1);
+			if (!lines.shouldStopGenerating[i]) return i;
+		}
+	}
+}
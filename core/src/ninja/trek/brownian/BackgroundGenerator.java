@@ -0,0 +1,49 @@
+package ninja.trek.brownian;
+
+import java.util.concurrent.locks.Condition;
+
+/**
+ * Runs a TreeGenerator on its own thread in short time slices. Everything touching the generator or its
+ * GuideLines, including drawing them, must hold the generator's lock; being fair, it goes to whoever is waiting
+ * between slices, so nobody waits longer than a slice for it.
+ */
+public class BackgroundGenerator implements Runnable {
+	private static final float SLICE_MILLIS = 4;
+	private final TreeGenerator generator;
+	private final Condition jobStarted;
+	private final Thread thread;
+	private volatile boolean running = true;
+
+	public BackgroundGenerator(TreeGenerator generator) {
+		this.generator = generator;
+		jobStarted = generator.lock.newCondition();
+		thread = new Thread(this, "generator");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			generator.lock.lock();
+			try {
+				while (running && !generator.isProcessing()) jobStarted.await();
+				generator.runFor(SLICE_MILLIS);
+			} catch (InterruptedException e) {
+				return;
+			} finally {
+				generator.lock.unlock();
+			}
+		}
+	}
+
+	/** Call after starting a job, while holding the generator's lock. */
+	public void wake() {
+		jobStarted.signalAll();
+	}
+
+	public void dispose() {
+		running = false;
+		thread.interrupt();
+	}
+}
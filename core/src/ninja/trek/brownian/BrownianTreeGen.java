@@ -9,7 +9,6 @@ import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.BitmapFont;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
-import com.badlogic.gdx.math.Intersector;
 import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.math.Vector3;
@@ -20,53 +19,60 @@ import com.badlogic.gdx.scenes.scene2d.ui.Skin;
 import com.badlogic.gdx.scenes.scene2d.ui.Table;
 import com.badlogic.gdx.scenes.scene2d.ui.TextButton;
 import com.badlogic.gdx.scenes.scene2d.utils.ClickListener;
-import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.IntArray;
 import com.badlogic.gdx.utils.ScreenUtils;
+import com.badlogic.gdx.utils.TimeUtils;
 import com.kotcrab.vis.ui.VisUI;
 
-import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
 
 public class BrownianTreeGen extends ApplicationAdapter {
 	private static final int MAX_THICKNESS = 2;
+	private static final float FRAME_BUDGET_MILLIS = 8;
+	private static final float CHECKPOINT_SECONDS = 30;
+	// segments on the source path; the rest go from red to green with distance from it
+	private static final float TRUNK_COLOR = Color.WHITE.toFloatBits();
 	SpriteBatch batch;
 	Texture img;
 	private ShapeRenderer shape;
+	private SegmentMesh treeMesh, guideMesh;
+	private int treeMeshVersion = -1, guideMeshVersion = -1, guideMeshStopped = -1;
+	private boolean guideMeshDrawing;
 	private OrthographicCamera camera;
 	private Stage stage;
 	private Table mainTable;
 
-	public Array<Vector2> start = new Array<Vector2>();
-	public Array<Vector2> end = new Array<Vector2>();
-
-
-	public IntArray parent = new IntArray();
-
-	public IntArray thickness = new IntArray();
-
-	private Vector2 a  = new Vector2(), b = new Vector2(), v = new Vector2(), intersect = new Vector2(), tmp = new Vector2(), target = new Vector2();
+	private final GuideLines lines = new GuideLines();
+	private TreeGenerator generator;
+	private final boolean backgroundGeneration;
+	private BackgroundGenerator background;
+	// writes the running job to checkpoint.tree every so often, for Restore to carry on after a crash
+	private Checkpointer checkpointer;
+	private int checkpointFailures;
+	private volatile boolean sweeping;
+	/** How tree files are read and written; launchers can set a faster one for their platform. */
+	public TreeFile.Storage storage = new TreeFile.Storage();
+
+	private Vector2 v = new Vector2();
 	private Vector3 v3 = new Vector3();
-	int[] collIndex = new int[1];
-	private int width;
-	private int height;
 	private DrawingScreen drawingScreen;
-	private int maxTries;
-	private int tries;
-	private int createdLines;
-	private int targetLineCount;
-	private int childLimit;
-	private boolean randomStart;
-	private float lineLengthMin;
-	private float lineLengthMax;
-	private boolean nearest;
-	private float angle;
-	private boolean isProcessing;
 	private boolean isDrawing;
 	private SVGExporter exporter;
 	private BitmapFont font;
+	/** Draws the generator's stats, and appends them to stats.csv and stats.json as each job ends. */
+	public boolean showStats;
+	private boolean wasProcessing;
+	private long frameRenderNanos, frameGenerationNanos, lastGenerationNanos;
 
-	private float maxDistance;
+	public BrownianTreeGen() {
+		this(false);
+	}
+
+	/** With backgroundGeneration the tree grows on its own thread, otherwise within a time budget each frame. */
+	public BrownianTreeGen(boolean backgroundGeneration) {
+		this.backgroundGeneration = backgroundGeneration;
+	}
 
 	@Override
 	public void create () {
@@ -75,6 +81,8 @@ public class BrownianTreeGen extends ApplicationAdapter {
 		camera.position.set(Gdx.graphics.getWidth()/2, Gdx.graphics.getHeight()/2, 0);
 //		batch.setTransformMatrix(camera.combined);
 		shape = new ShapeRenderer();
+		treeMesh = new SegmentMesh();
+		guideMesh = new SegmentMesh();
 		img = new Texture("badlogic.jpg");
 		VisUI.load();
 		Skin skin = VisUI.getSkin();
@@ -82,7 +90,10 @@ public class BrownianTreeGen extends ApplicationAdapter {
 
 //		Gdx.app.log("main", "fonts " + skin.getAll(BitmapFont.class));
 		stage = new Stage();
-		drawingScreen = new DrawingScreen(this);
+		generator = new TreeGenerator(Gdx.graphics.getWidth(), Gdx.graphics.getHeight(), lines);
+		if (backgroundGeneration) background = new BackgroundGenerator(generator);
+		checkpointer = new Checkpointer(generator, storage, Gdx.files.external("checkpoint.tree"), CHECKPOINT_SECONDS);
+		drawingScreen = new DrawingScreen(this, generator);
 		mainTable = new Table();
 
 		TextButton resetBtn = new TextButton("reset", skin);
@@ -107,7 +118,12 @@ public class BrownianTreeGen extends ApplicationAdapter {
 			@Override
 			public void clicked(InputEvent event, float x, float y) {
 				FileHandle file = Gdx.files.external("output.svg");
-				SVGExporter.exportToSVG(start, end, file);
+				generator.lock.lock();
+				try {
+					SVGExporter.exportToSVG(generator.tree, generator.getWidth(), generator.getHeight(), file);
+				} finally {
+					generator.lock.unlock();
+				}
 
 				super.clicked(event, x, y);
 			}
@@ -115,12 +131,78 @@ public class BrownianTreeGen extends ApplicationAdapter {
 
 
 
+		TextButton saveBtn = new TextButton("Save", skin);
+		saveBtn.addListener(new ClickListener(){
+			@Override
+			public void clicked(InputEvent event, float x, float y) {
+				FileHandle file = Gdx.files.external("output.tree");
+				generator.lock.lock();
+				try {
+					TreeFile.save(generator, file, storage);
+				} finally {
+					generator.lock.unlock();
+				}
+				Gdx.app.log("main", "saved " + generator.tree.size + " segments to " + file.path());
+			}
+		});
+
+		TextButton loadBtn = new TextButton("Load", skin);
+		loadBtn.addListener(new ClickListener(){
+			@Override
+			public void clicked(InputEvent event, float x, float y) {
+				FileHandle file = Gdx.files.external("output.tree");
+				if (!file.exists()) return;
+				generator.lock.lock();
+				try {
+					TreeFile.load(file, generator, storage);
+				} finally {
+					generator.lock.unlock();
+				}
+				Gdx.app.log("main", "loaded " + generator.tree.size + " segments from " + file.path());
+			}
+		});
+
 		TextButton stopBtn = new TextButton("   STOP   ", skin);
 		stopBtn.addListener(new ClickListener(){
 			@Override
 			public void clicked(InputEvent event, float x, float y) {
-				isProcessing = false;
-				postCalculations();
+				generator.lock.lock();
+				try {
+					generator.finish();
+				} finally {
+					generator.lock.unlock();
+				}
+			}
+		});
+
+		TextButton resumeBtn = new TextButton("Resume", skin);
+		resumeBtn.addListener(new ClickListener(){
+			@Override
+			public void clicked(InputEvent event, float x, float y) {
+				generator.lock.lock();
+				try {
+					resumeJob();
+				} finally {
+					generator.lock.unlock();
+				}
+			}
+		});
+
+		TextButton restoreBtn = new TextButton("Restore", skin);
+		restoreBtn.addListener(new ClickListener(){
+			@Override
+			public void clicked(InputEvent event, float x, float y) {
+				FileHandle file = checkpointer.getFile();
+				if (!file.exists()) return;
+				generator.lock.lock();
+				try {
+					checkpointer.finishWriting();
+					TreeFile.load(file, generator, storage);
+					resumeJob();
+				} finally {
+					generator.lock.unlock();
+				}
+				Gdx.app.log("main", "restored " + generator.getCreatedLines() + " of " + generator.getTargetLineCount() + " lines from " + file.path());
 			}
 		});
 
@@ -128,7 +210,11 @@ public class BrownianTreeGen extends ApplicationAdapter {
 		mainTable.add(drawBtn).left();
 
 		mainTable.add(exportBtn).left();
+		mainTable.add(saveBtn).left();
+		mainTable.add(loadBtn).left();
 		mainTable.add(stopBtn);
+		mainTable.add(resumeBtn).left();
+		mainTable.add(restoreBtn).left();
 		mainTable.add(new Actor()).expandX().row();
 
 		mainTable.add(new Settings(this));
@@ -151,277 +237,164 @@ public class BrownianTreeGen extends ApplicationAdapter {
 	}
 
 	public void resetTree(){
-		drawingScreen.makeAdjustedSourceLines();
 		Gdx.app.log("main", "starting");
-		start.clear();
-		end.clear();
-		parent.clear();
-
-		width = Gdx.graphics.getWidth();
-		height = Gdx.graphics.getHeight();
-
-		postCalculations();
+		generator.lock.lock();
+		try {
+			lines.makeAdjustedSourceLines();
+			generator.reset(Gdx.graphics.getWidth(), Gdx.graphics.getHeight());
+		} finally {
+			generator.lock.unlock();
+		}
 	}
 
 
 
-	public void postCalculations() {
-		IntArray sourceConnections = new IntArray();
-		for (int i = 0; i < start.size; i++){
-			if (collideSource(start.get(i), end.get(i))){
-				sourceConnections.add(i);
-			}
+	public void createTree(boolean nearest, int targetLineCount, float angle, int childLimit, boolean randomStart, float lineLengthMin, float lineLengthMax, long seed) {
+		Gdx.app.log("main", "start" +nearest+targetLineCount + " " + angle + " seed " + seed);
+		generator.lock.lock();
+		try {
+			generator.createTree(nearest, targetLineCount, angle, childLimit, randomStart, lineLengthMin, lineLengthMax, seed);
+			if (background != null) background.wake();
+		} finally {
+			generator.lock.unlock();
 		}
-		int[] mainLineDistance = new int[start.size];
-		Arrays.fill(mainLineDistance, Integer.MAX_VALUE);
-		//mark source lines as distance 0
-		for (int i = 0; i < sourceConnections.size; i++) {
-			int currentIdx = sourceConnections.get(i);
-			while (currentIdx != -1) {
-				mainLineDistance[currentIdx] = 0;
-				currentIdx = parent.get(currentIdx);
-			}
-		}
-
-		// BFS for distance from main path
-		boolean changed;
-		do {
-			changed = false;
-			for (int i = 0; i < start.size; i++) {
-				if (mainLineDistance[i] == Integer.MAX_VALUE) {
-					int parentDist = parent.get(i) == -1 ? Integer.MAX_VALUE : mainLineDistance[parent.get(i)];
-					if (parentDist != Integer.MAX_VALUE) {
-						mainLineDistance[i] = parentDist + 1;
-						maxDistance = Math.max(maxDistance, mainLineDistance[i]);
-						changed = true;
-					}
-				}
-			}
-		} while (changed);
-		thickness.clear();
-		thickness.addAll(mainLineDistance);
 	}
 
+	// carries on the stopped or restored job, call holding the generator's lock
+	private void resumeJob() {
+		if (generator.resume() && background != null) background.wake();
+	}
 
-
-
-	public void createTree(boolean nearest, int targetLineCount, float angle, int childLimit, boolean randomStart, float lineLengthMin, float lineLengthMax) {
-		Gdx.app.log("main", "start" +nearest+targetLineCount + " " + angle);
-//		MathUtils.random.setSeed(1);
-		maxTries = targetLineCount * 10;
-		tries = 0;
-		createdLines = 0;
-		this.nearest = nearest;
-		this.angle = angle;
-		this.targetLineCount = targetLineCount;
-		this.childLimit = childLimit;
-		this.randomStart = randomStart;
-		this.lineLengthMin = lineLengthMin;
-		this.lineLengthMax = lineLengthMax;
-		this.isProcessing = true;
-		if(lineLengthMin > lineLengthMax){
-			float tmp = lineLengthMax;
-			lineLengthMax = lineLengthMin;
-			lineLengthMin = tmp;
+	public void setParallel(boolean parallel) {
+		generator.lock.lock();
+		try {
+			generator.setParallelism(parallel ? Runtime.getRuntime().availableProcessors() : 1);
+		} finally {
+			generator.lock.unlock();
 		}
 	}
 
-	public boolean processTree(){
-		if (tries++ < maxTries && createdLines < targetLineCount){
-			int sourceIndex = -1;
-			if (randomStart){
-				a.set(MathUtils.random(width), MathUtils.random(height));
-			} else {
-				if (drawingScreen.shouldStopTotal == drawingScreen.adjustedSourceStart.size) return true;
-				boolean foundStart = false;
-				while (!foundStart){
-					sourceIndex = MathUtils.random(drawingScreen.adjustedSourceStart.size-1);
-					if (drawingScreen.shouldStopGenerating[sourceIndex]) continue;
-					a.set(drawingScreen.adjustedSourceStart.get(sourceIndex));
-					float alpha = MathUtils.random(1f);
-					a.lerp(drawingScreen.adjustedSourceEnd.get(sourceIndex), alpha);
-					break;
-				}
-			}
-			float lineLengthDelta = (float)createdLines / targetLineCount;
-			float lineLength = MathUtils.lerp(lineLengthMax, lineLengthMin, lineLengthDelta);
-//			Gdx.app.log("main", "iterating" +lineLength);
-			boolean hasCollided = false;
-			int moveTries = 0;
-			while (moveTries++ < 1000 && !hasCollided){
-				v.set(-lineLength, 0);
-				float targetAngle;
-				if (nearest){
-					setClosestPoint(target, a);
-					targetAngle = tmp.set(a).sub(target).angleDeg();
-				}
-				else{
-//					target.set(width/2, height/2);
-					targetAngle = MathUtils.random(360f);
-				}
-				v.rotateDeg(MathUtils.random(-angle, angle) + targetAngle);
-				b.set(a).add(v);
-//				Gdx.app.log("main", "moved"+ a + "  angle " + targetAngle + " " + target);//tmp.set(a).sub(b).angleDeg());
-				if (b.x <  0 || b.x > width || b.y < 0 || b.y > height){
-					hasCollided = true;
-//					Gdx.app.log("main", "failed oob");
-					continue;
-				}
-				boolean hitSource = false;
-				if (collide(a, b, intersect, collIndex)){
-					hasCollided= true;
-					if (collIndex[0] == -2) continue;
-					if (moveTries <= 1 && !randomStart) {
-//						Gdx.app.log("main", "failed collision at source "+ moveTries);
-						if (sourceIndex != -1) {
-							drawingScreen.shouldStopGenerating[sourceIndex] = true;
-							drawingScreen.shouldStopTotal++;
-						}
-						hitSource = true;
-//						continue;
-					}
-					start.add(new Vector2(a));
-					end.add(new Vector2(intersect));
-					parent.add(collIndex[0]);
-					//subdivide parent
-
-					if (collIndex[0] != -1){
-						if (intersect.dst2(start.get(collIndex[0])) < 0.1f){//close to start
-							end.peek().set(start.get(collIndex[0]));
-							Gdx.app.log("tree", "merge parent");;
-						}else if (intersect.dst2(end.get(collIndex[0])) < 0.1f){//close to end, connect with parent's parent
-							if (parent.get(collIndex[0]) != -1){
-								parent.pop();
-								parent.add(parent.get(collIndex[0]));
-								end.peek().set(start.get(parent.get(collIndex[0])));
-								Gdx.app.log("tree", "merge grandparent");;
-							}
-						}
-						else {//subdivide
-							Vector2 parentEnd = end.get(collIndex[0]);
-							Vector2 extraStart = new Vector2(intersect);
-							Vector2 extraEnd = new Vector2(parentEnd);
-							parentEnd.set(intersect);
-							int extraParent = parent.get(collIndex[0]);
-							start.add(extraStart);
-							end.add(extraEnd);
-							parent.add(extraParent);
-							parent.set(collIndex[0], parent.size-1);
-						}
-
-
-					}
-
-
-					createdLines++;
-//					Gdx.app.log("main", "collided "+a+collIndex[0]);
-				}
-				a.set(b);
-			}
-//			if (!hasCollided) Gdx.app.log("main", "failed to collide "+a+collIndex[0]);
-		} else {
-
-
-			return true;
-
+	public void setLeaping(boolean leaping) {
+		generator.lock.lock();
+		try {
+			generator.setLeaping(leaping);
+		} finally {
+			generator.lock.unlock();
 		}
-		return false;
-		//		Gdx.app.log("main", "done " + start.size);
 	}
 
-	private void setClosestPoint(Vector2 target, Vector2 a) {
-
-		float dist = 1000000000;
-		for (int i = 0; i < start.size; i++){
-			Vector2 s = start.get(i);
-			Vector2 e = end.get(i);
-//			if (a.dst2(centre.get(i)) < dist){
-			float d = Intersector.distanceSegmentPoint(s, e, a);
-			if (d < dist){
-				dist = d;
-				Intersector.nearestSegmentPoint(s, e, a, target);
-			}
-		}
-		for (int i = 0; i < drawingScreen.destStart.size; i++){
-			Vector2 s = drawingScreen.destStart.get(i);
-			Vector2 e = drawingScreen.destEnd.get(i);
-			float d = Intersector.distanceSegmentPoint(s, e, a);
-			if (d < dist){
-				dist = d;
-				Intersector.nearestSegmentPoint(s, e, a, target);
-			}
+	/** Sets GuideLines.sourceSegmentLength, splitting the source lines again if it changed. */
+	public void setSourceSegmentLength(float length) {
+		generator.lock.lock();
+		try {
+			lines.sourceSegmentLength = length;
+			lines.updateAdjustedSourceLines();
+		} finally {
+			generator.lock.unlock();
 		}
 	}
-	private boolean collideSource(Vector2 a, Vector2 b){
-		v.set(a).sub(b).nor().scl(0.1f).add(b);
-		for (int i = 0; i < drawingScreen.adjustedSourceEnd.size; i++) {
-			Vector2 st = drawingScreen.adjustedSourceStart.get(i);
-			Vector2 en = drawingScreen.adjustedSourceEnd.get(i);
-			if (Intersector.intersectSegments(a, v, st, en, intersect)) return true;
+
+	public void setLaunching(boolean launching) {
+		generator.lock.lock();
+		try {
+			generator.setLaunching(launching);
+		} finally {
+			generator.lock.unlock();
 		}
-		return false;
 	}
-	private boolean collide(Vector2 a, Vector2 b, Vector2 coll, int[] index) {
-		float dist = 100000000;
-		boolean hasCollided = false;
-
-		// Check collisions with existing tree segments
-		for (int i = 0; i < start.size; i++) {
-			Vector2 st = start.get(i);
-			Vector2 en = end.get(i);
-			if (Intersector.intersectSegments(a, b, st, en, v)) {
-				if (v.dst(a) < dist) {
-					dist = v.dst(a);
-					coll.set(v);
-					hasCollided = true;
-					index[0] = i;
-				}
-			}
-		}
 
-		// Check collisions with destination lines
-		for (int i = 0; i < drawingScreen.destStart.size; i++) {
-			Vector2 st = drawingScreen.destStart.get(i);
-			Vector2 en = drawingScreen.destEnd.get(i);
-			if (Intersector.intersectSegments(a, b, st, en, v)) {
-				if (v.dst(a) < dist) {
-					dist = v.dst(a);
-					coll.set(v);
-					hasCollided = true;
-					index[0] = -1;
-
-				}
-			}
+	/**
+	 * Grows the settings over seeds seed to seed + seeds - 1 on the current guide lines and canvas, each on its own
+	 * generator and off the render thread, and writes them with {@link SweepReport} to the sweep directory.
+	 */
+	public void sweep(boolean nearest, int targetLineCount, float angle, int childLimit, boolean randomStart, float lineLengthMin, float lineLengthMax, boolean leap, boolean launch, long seed, int seeds) {
+		if (sweeping) {
+			Gdx.app.log("main", "a sweep is already running");
+			return;
 		}
-
-		// Check collisions with destination lines
-		for (int i = 0; i < drawingScreen.excludeStart.size; i++) {
-			Vector2 st = drawingScreen.excludeStart.get(i);
-			Vector2 en = drawingScreen.excludeEnd.get(i);
-			if (Intersector.intersectSegments(a, b, st, en, v)) {
-				if (v.dst(a) < dist) {
-					dist = v.dst(a);
-					coll.set(v);
-					hasCollided = true;
-					index[0] = -2;
-
+		final ParameterSweep sweep;
+		final int width, height;
+		generator.lock.lock();
+		try {
+			width = generator.getWidth();
+			height = generator.getHeight();
+			sweep = new ParameterSweep(width, height, lines);
+		} finally {
+			generator.lock.unlock();
+		}
+		sweep.nearest = new boolean[] {nearest};
+		sweep.randomStart = new boolean[] {randomStart};
+		sweep.leap = new boolean[] {leap};
+		sweep.launch = new boolean[] {launch};
+		sweep.angle = new float[] {angle};
+		sweep.lineLengthMin = new float[] {lineLengthMin};
+		sweep.lineLengthMax = new float[] {lineLengthMax};
+		sweep.lines = new int[] {targetLineCount};
+		sweep.childLimit = new int[] {childLimit};
+		sweep.seed = new long[Math.max(1, seeds)];
+		for (int i = 0; i < sweep.seed.length; i++) sweep.seed[i] = seed + i;
+		final FileHandle output = Gdx.files.external("sweep");
+		output.mkdirs();
+		sweep.listener = new ParameterSweep.Listener() {
+			@Override
+			public void done(ParameterSweep.Run run) {
+				SweepReport.writeRun(run, width, height, output);
+			}
+		};
+		Gdx.app.log("main", "sweeping " + sweep.size() + " seeds from " + seed);
+		sweeping = true;
+		//leaves a core for the app's own generator
+		final int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					List<ParameterSweep.Run> runs = sweep.runAll(threads);
+					SweepReport.writeCsv(runs, output.child("results.csv"));
+					SweepReport.writeHtml(runs, output.child("index.html"));
+					Gdx.app.log("main", "swept " + runs.size() + " runs to " + output.child("index.html").path());
+				} catch (RuntimeException e) {
+					Gdx.app.error("main", "sweep failed", e);
+				} finally {
+					sweeping = false;
 				}
 			}
-		}
-
-
-		return hasCollided;
+		}, "sweep");
+		thread.setDaemon(true);
+		thread.start();
 	}
 
 	@Override
 	public void render () {
 
-		for (int i = 0; i < 8; i++) if (isProcessing){
-			if (processTree()){
-				isProcessing = false;
-				postCalculations();
-			}
+		if (background == null) generator.runFor(FRAME_BUDGET_MILLIS);
+		long start = TimeUtils.nanoTime();
+		generator.lock.lock();
+		try {
+			drawGeneration();
+		} finally {
+			generator.lock.unlock();
+		}
+		stage.draw();
+		generator.lock.lock();
+		try {
+			drawProgress();
+			if (showStats) drawStats();
+			GenerationStats stats = generator.stats;
+			frameRenderNanos = TimeUtils.nanoTime() - start;
+			frameGenerationNanos = stats.generationNanos - lastGenerationNanos;
+			lastGenerationNanos = stats.generationNanos;
+			stats.renderNanos += frameRenderNanos;
+			stats.frames++;
+			if (wasProcessing && !generator.isProcessing() && showStats) writeStats();
+			wasProcessing = generator.isProcessing();
+			if (wasProcessing) updateCheckpoint();
+		} finally {
+			generator.lock.unlock();
 		}
+	}
+
+	private void drawGeneration() {
 
 		ScreenUtils.clear(0, 0, 0, 1);
 		camera.update();
@@ -430,116 +403,137 @@ public class BrownianTreeGen extends ApplicationAdapter {
 //		batch.draw(img, 0, 0);
 //		batch.end();
 
-		shape.setProjectionMatrix(camera.combined);
-
-//		for (int t = 0; t < MAX_THICKNESS+1; t++){
-		shape.begin(ShapeRenderer.ShapeType.Line);
-		shape.setColor(Color.WHITE);
-//			Gdx.gl.glLineWidth(t+2.0f);
-		Color mainColor = Color.RED;
-		Color tipColor = Color.GREEN;
-		Color tempColor = new Color();
-
-		for (int i = 0; i < start.size; i++) {
-			Vector2 st = start.get(i);
-			Vector2 en = end.get(i);
-			int dist = thickness.size > i?thickness.get(i):0;
-
-			if (dist == 0) {
-				shape.setColor(Color.WHITE);
-			} else {
-				float lerpFactor = MathUtils.clamp(dist / maxDistance, 0, 1);
-				tempColor.r = MathUtils.lerp(mainColor.r, tipColor.r, lerpFactor);
-				tempColor.g = MathUtils.lerp(mainColor.g, tipColor.g, lerpFactor);
-				tempColor.b = MathUtils.lerp(mainColor.b, tipColor.b, lerpFactor);
-				tempColor.a = 1;
-				shape.setColor(tempColor);
-			}
+		generator.updateThickness();
+		updateTreeMesh();
+		treeMesh.draw(camera.combined);
+		updateGuideMesh();
+		guideMesh.draw(camera.combined);
 
-			shape.line(st, en);
-		}
 		if (drawingScreen.isFirstPoint){
+			shape.setProjectionMatrix(camera.combined);
+			shape.begin(ShapeRenderer.ShapeType.Line);
+			shape.setColor(Color.WHITE);
 			v3.set(Gdx.input.getX(), Gdx.input.getY(), 0);
 			camera.unproject(v3);
 			v.set(v3.x, v3.y);
 			shape.line(drawingScreen.current, v);
-		}
-		shape.end();
-		shape.setColor(Color.GREEN);
-		shape.begin(ShapeRenderer.ShapeType.Line);
-		for (int i = 0; i < drawingScreen.destStart.size; i++){
-			Vector2 st = drawingScreen.destStart.get(i);
-			Vector2 en = drawingScreen.destEnd.get(i);
-			int thick = 1;
-//				if (0 == t)
-			shape.line(st, en);
-//				Gdx.app.log("main", "drawing " + st + en);
-		}
-		shape.end();
-		shape.setColor(Color.RED);
-		shape.begin(ShapeRenderer.ShapeType.Line);
-		for (int i = 0; i < drawingScreen.excludeStart.size; i++){
-			Vector2 st = drawingScreen.excludeStart.get(i);
-			Vector2 en = drawingScreen.excludeEnd.get(i);
-			int thick = 1;
-//				if (0 == t)
-			shape.line(st, en);
-//				Gdx.app.log("main", "drawing " + st + en);
-		}
-		shape.end();
-		if (isDrawing){
-			shape.setColor(Color.CYAN);
-			shape.begin(ShapeRenderer.ShapeType.Line);
-			for (int i = 0; i < drawingScreen.sourceStart.size; i++){
-				Vector2 st = drawingScreen.sourceStart.get(i);
-				Vector2 en = drawingScreen.sourceEnd.get(i);
-				shape.line(st, en);
-			}
 			shape.end();
+		}
+
+//		stage.setDebugAll(true);
+	}
+
+	// appends new segments and rewrites the ones the topology lists as changed, rebuilding all of them only when the
+	// version changes; the colours follow maxDistance in the shader
+	private void updateTreeMesh() {
+		SegmentStore tree = generator.tree;
+		TreeTopology topology = generator.topology;
+		int version = topology.getVersion();
+		if (version != treeMeshVersion || treeMesh.size() > tree.size) {
+			treeMesh.clear();
+			treeMeshVersion = version;
 		} else {
-			shape.setColor(Color.CYAN);
-			shape.begin(ShapeRenderer.ShapeType.Line);
-			for (int i = 0; i < drawingScreen.adjustedSourceStart.size; i++){
-				Vector2 st = drawingScreen.adjustedSourceStart.get(i);
-				Vector2 en = drawingScreen.adjustedSourceEnd.get(i);
-				if (!drawingScreen.shouldStopGenerating[i]) shape.line(st, en);
+			IntArray changed = topology.changed;
+			for (int k = 0; k < changed.size; k++) {
+				int i = changed.get(k);
+				if (i < treeMesh.size()) treeMesh.set(i, tree.x0(i), tree.y0(i), tree.x1(i), tree.y1(i), TRUNK_COLOR, distance(i));
 			}
-			shape.end();
+		}
+		topology.changed.clear();
+		for (int i = treeMesh.size(); i < tree.size; i++)
+			treeMesh.add(tree.x0(i), tree.y0(i), tree.x1(i), tree.y1(i), TRUNK_COLOR, distance(i));
+		treeMesh.maxValue = generator.getMaxDistance();
+	}
 
-			shape.setColor(Color.BLUE);
-			shape.begin(ShapeRenderer.ShapeType.Line);
-			for (int i = 0; i < drawingScreen.adjustedSourceStart.size; i++){
-				Vector2 st = drawingScreen.adjustedSourceStart.get(i);
-				Vector2 en = drawingScreen.adjustedSourceEnd.get(i);
-				if (drawingScreen.shouldStopGenerating[i]) shape.line(st, en);
-//				Gdx.app.log("main", "drawing " + st + en);
+	private float distance(int i) {
+		IntArray thickness = generator.thickness;
+		return thickness.size > i ? thickness.get(i) : 0;
+	}
+
+	private void updateGuideMesh() {
+		if (lines.linesVersion == guideMeshVersion && lines.shouldStopTotal == guideMeshStopped && isDrawing == guideMeshDrawing) return;
+		guideMeshVersion = lines.linesVersion;
+		guideMeshStopped = lines.shouldStopTotal;
+		guideMeshDrawing = isDrawing;
+		guideMesh.clear();
+		addLines(lines.dest, Color.GREEN.toFloatBits());
+		addLines(lines.exclude, Color.RED.toFloatBits());
+		if (isDrawing){
+			addLines(lines.source, Color.CYAN.toFloatBits());
+		} else {
+			SegmentStore adjustedSource = lines.adjustedSource;
+			float active = Color.CYAN.toFloatBits(), stopped = Color.BLUE.toFloatBits();
+			for (int i = 0; i < adjustedSource.size; i++){
+				guideMesh.add(adjustedSource.x0(i), adjustedSource.y0(i), adjustedSource.x1(i), adjustedSource.y1(i), lines.shouldStopGenerating[i] ? stopped : active);
 			}
-			shape.end();
 		}
+	}
 
-//		}
+	private void addLines(SegmentStore segments, float color) {
+		for (int i = 0; i < segments.size; i++)
+			guideMesh.add(segments.x0(i), segments.y0(i), segments.x1(i), segments.y1(i), color);
+	}
 
-//		stage.setDebugAll(true);
-		stage.draw();
+	private void drawProgress() {
 
 		batch.setProjectionMatrix(camera.combined);
-		if (isProcessing && createdLines > 0){
+		if (generator.isProcessing() && generator.getCreatedLines() > 0){
 			batch.begin();
-			String progress = "" + (int)(((float)createdLines / targetLineCount) * 100);
+			String progress = "" + (int)(((float)generator.getCreatedLines() / generator.getTargetLineCount()) * 100);
 			font.draw(batch, "[FOREST]"+progress+"%", 10, 30);
 
 			batch.end();
 
 		}
 		batch.begin();
-		font.draw(batch, "lines: "+start.size+"", 10, 50);
+		font.draw(batch, "lines: "+generator.tree.size+"", 10, 50);
+		Throwable checkpointError = checkpointer.getError();
+		if (checkpointError != null) font.draw(batch, "[RED]checkpoint failed: " + checkpointError.getMessage(), 10, camera.viewportHeight - 10);
 		batch.end();
 	}
 	
+	private void drawStats() {
+		GenerationStats stats = generator.stats;
+		String[] text = {
+			"tries: " + stats.tries + "  out of bounds: " + (int)(stats.outOfBoundsRate() * 100) + "%  excluded: " + stats.excluded,
+			"steps/line: " + (int)stats.stepsPerLine() + "  tests/step: " + MathUtils.round(stats.collisionTestsPerStep() * 10) / 10f + "  leaps: " + stats.leaps,
+			"lines/s: " + (int)stats.linesPerSecond() + "  sources stopped: " + stats.sourcesStopped,
+			"frame ms: generation " + frameGenerationNanos / 100000 / 10f + "  render " + frameRenderNanos / 100000 / 10f,
+		};
+		batch.begin();
+		for (int i = 0; i < text.length; i++) font.draw(batch, text[i], 10, 70 + (text.length - 1 - i) * 20);
+		batch.end();
+	}
+
+	// logs each failed write once; the latest one shows on screen until a checkpoint is written again
+	private void updateCheckpoint() {
+		try {
+			checkpointer.update();
+		} catch (RuntimeException e) {
+			Gdx.app.error("main", "checkpoint failed", e);
+		}
+		if (checkpointer.getFailures() != checkpointFailures) {
+			checkpointFailures = checkpointer.getFailures();
+			Gdx.app.error("main", "couldn't write checkpoint " + checkpointer.getFile().path(), checkpointer.getError());
+		}
+	}
+
+	private void writeStats() {
+		generator.stats.appendCsv(Gdx.files.external("stats.csv"));
+		generator.stats.writeJson(Gdx.files.external("stats.json"));
+		Gdx.app.log("main", "stats " + generator.stats.toJson());
+	}
+
 	@Override
 	public void dispose () {
 		batch.dispose();
 		img.dispose();
+		shape.dispose();
+		treeMesh.dispose();
+		guideMesh.dispose();
+		if (background != null) background.dispose();
+		checkpointer.dispose();
+		generator.dispose();
 		VisUI.dispose();
 	}
 }
@@ -0,0 +1,118 @@
+package ninja.trek.brownian;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.TimeUtils;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Writes a generator's tree and job to a tree file every so often, so a long job can be resumed after a crash. The
+ * generator's state is copied into a buffer on the calling thread, which takes milliseconds even for large trees,
+ * and written out on a thread of its own while growth carries on. Each checkpoint goes to a temporary file first
+ * and then replaces the last one through {@link TreeFile.Storage#replace}, so a crash while writing leaves the
+ * previous one intact wherever the storage replaces files in one step. A failed write doesn't stop later ones; its
+ * cause is kept in {@link #getError()} for the caller to report.
+ */
+public class Checkpointer {
+	private final TreeGenerator generator;
+	private final TreeFile.Storage storage;
+	private final FileHandle file, temp;
+	private final long intervalMillis;
+	private final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "checkpoint");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private ByteBuffer buffer;
+	private long last;
+	private Future<?> pending;
+	private Throwable error;
+	private int failures;
+
+	public Checkpointer(TreeGenerator generator, TreeFile.Storage storage, FileHandle file, float intervalSeconds) {
+		this.generator = generator;
+		this.storage = storage;
+		this.file = file;
+		temp = file.sibling(file.name() + ".tmp");
+		intervalMillis = (long)(intervalSeconds * 1000);
+		last = TimeUtils.millis();
+	}
+
+	public FileHandle getFile() {
+		return file;
+	}
+
+	/**
+	 * Starts a checkpoint if the interval has passed and the last one is written. Call from wherever the generator is
+	 * safe to read, as between updates.
+	 */
+	public boolean update() {
+		if (TimeUtils.millis() - last < intervalMillis) return false;
+		return checkpoint();
+	}
+
+	/** Starts a checkpoint now, unless the last one is still being written. */
+	public boolean checkpoint() {
+		if (pending != null) {
+			if (!pending.isDone()) return false;
+			finishWriting();
+		}
+		int size = TreeFile.byteSize(generator);
+		//the file grows with the tree, so leave room to reuse the buffer for a while
+		if (buffer == null || buffer.capacity() < size) buffer = storage.allocate(size + size / 2);
+		//through Buffer, as TreeFile does, for runtimes without ByteBuffer's own overloads
+		((Buffer)buffer).clear();
+		TreeFile.write(generator, buffer);
+		((Buffer)buffer).flip();
+		last = TimeUtils.millis();
+		final ByteBuffer contents = buffer;
+		pending = writer.submit(new Runnable() {
+			@Override
+			public void run() {
+				storage.write(contents, temp);
+				storage.replace(temp, file);
+			}
+		});
+		return true;
+	}
+
+	/** Waits for the checkpoint being written, if any, returning false if writing it failed. */
+	public boolean finishWriting() {
+		if (pending == null) return error == null;
+		try {
+			pending.get();
+			error = null;
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			error = e.getCause();
+			failures++;
+		} finally {
+			pending = null;
+		}
+		return error == null;
+	}
+
+	/** What went wrong writing the last checkpoint, or null if it was written. */
+	public Throwable getError() {
+		return error;
+	}
+
+	/** How many checkpoints have failed to be written, which changes with each new failure. */
+	public int getFailures() {
+		return failures;
+	}
+
+	public void dispose() {
+		writer.shutdown();
+	}
+}
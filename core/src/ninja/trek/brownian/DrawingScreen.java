@@ -1,8 +1,8 @@
 package ninja.trek.brownian;
 
 import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.graphics.g2d.BitmapFont;
-import com.badlogic.gdx.math.Intersector;
 import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.scenes.scene2d.InputEvent;
@@ -27,22 +27,20 @@ import java.awt.Font;
 
 public class DrawingScreen extends Stack {
     public static String TAG = "Drawing Screen";
-    public Array<Vector2> sourceStart = new Array<Vector2>(), sourceEnd = new Array<Vector2>();
-    public Array<Vector2> adjustedSourceStart = new Array<Vector2>(), adjustedSourceEnd = new Array<Vector2>();
-    public Array<Vector2> excludeStart = new Array<Vector2>(), excludeEnd = new Array<Vector2>();
-
-    public Array<Vector2> destStart = new Array<Vector2>(), destEnd = new Array<Vector2>();
+    private final TreeGenerator generator;
+    private final GuideLines lines;
 
     public boolean isFirstPoint = false;
-    public boolean[] shouldStopGenerating;
-    public int shouldStopTotal;
 
     public enum DrawingMode {SOURCE, DESTINATION, EXCLUDE, ERASE};
     private DrawingMode mode = DrawingMode.SOURCE;
 
     public Vector2 current = new Vector2();
+    private final int[] pickIndex = new int[1];
 
-    public DrawingScreen(final BrownianTreeGen parent){
+    public DrawingScreen(final BrownianTreeGen parent, final TreeGenerator generator){
+        this.generator = generator;
+        this.lines = generator.getLines();
         Skin skin = VisUI.getSkin();
         skin.getFont("default-font").getData().markupEnabled = true;
         Table backTable = new Table();
@@ -51,16 +49,25 @@ public class DrawingScreen extends Stack {
         clear.addListener(new ClickListener(){
             @Override
             public void clicked(InputEvent event, float x, float y) {
-                sourceStart.clear();
-                sourceEnd.clear();
-                adjustedSourceStart.clear();
-                adjustedSourceEnd.clear();
-                destStart.clear();
-                destEnd.clear();
+                generator.lock.lock();
+                try {
+                    lines.clear();
+                } finally {
+                    generator.lock.unlock();
+                }
             }
         });
         backTable.add(clear).top();
 
+        TextButton importBtn = new TextButton("import", skin);
+        importBtn.addListener(new ClickListener(){
+            @Override
+            public void clicked(InputEvent event, float x, float y) {
+                importGuides();
+            }
+        });
+        backTable.add(importBtn).top();
+
         ButtonGroup drawGroup = new ButtonGroup<CheckBox>();
         Table drawTable = new Table();
 
@@ -114,7 +121,12 @@ public class DrawingScreen extends Stack {
         back.addListener(new ClickListener(){
             @Override
             public void clicked(InputEvent event, float x, float y) {
-                makeAdjustedSourceLines();
+                generator.lock.lock();
+                try {
+                    lines.updateAdjustedSourceLines();
+                } finally {
+                    generator.lock.unlock();
+                }
                 parent.mainScreen();
             }
         });
@@ -132,33 +144,34 @@ public class DrawingScreen extends Stack {
             public boolean touchDown(InputEvent event, float x, float y, int pointer, int button) {
                 Gdx.app.log("draw", "touch " + x + " " + y + mode);
                 if (mode == DrawingMode.ERASE){
-                    erase(x, y);
+                    generator.lock.lock();
+                    try {
+                        erase(x, y);
+                    } finally {
+                        generator.lock.unlock();
+                    }
                     return true;
                 }
                 isFirstPoint = !isFirstPoint;
-                Array<Vector2> start = null, end = null, center = null;
+                SegmentStore segments = null;
 
                 if (mode == DrawingMode.SOURCE) {
-                    start = sourceStart;
-                    end = sourceEnd;
+                    segments = lines.source;
                 } else if (mode == DrawingMode.DESTINATION){
-                    start = destStart;
-                    end = destEnd;
+                    segments = lines.dest;
                 } else if (mode == DrawingMode.EXCLUDE){
-                    start = excludeStart;
-                    end = excludeEnd;
+                    segments = lines.exclude;
                 }
 
                 if (isFirstPoint) {
                     current.set(x, y);
                 }
                 else{
-                    start.add(new Vector2(current));
-                    end.add(new Vector2(x, y));
-                    if (center != null){
-                        Vector2 c = new Vector2(current);
-                        c.lerp(end.peek(), .5f);
-                        center.add(c);
+                    generator.lock.lock();
+                    try {
+                        lines.addLine(segments, current.x, current.y, x, y);
+                    } finally {
+                        generator.lock.unlock();
                     }
                 }
                 return true;
@@ -172,95 +185,35 @@ public class DrawingScreen extends Stack {
         add(backTable);
         setFillParent(true);
     }
-    Vector2 a = new Vector2();
-    private void erase(float x, float y) {
-        Gdx.app.log("draws", "erase");
-        float dist = Float.MAX_VALUE;
-        int closestIndex = -1;
-        Array<?> closestListE = null, closestListS = null;
-        a.set(x, y);
-        for (int i = 0; i < sourceStart.size; i++){
-            Vector2 s = sourceStart.get(i);
-            Vector2 e = sourceEnd.get(i);
-//			if (a.dst2(centre.get(i)) < dist){
-            float d = Intersector.distanceSegmentPoint(s, e, a);
-            if (d < dist){
-                dist = d;
-                closestIndex = i;
-                closestListS = sourceStart;
-                closestListE = sourceEnd;
-            }
+    // reads guides.svg or guides.csv from the home directory, shapes that name no layer going to the one being drawn
+    private void importGuides() {
+        FileHandle file = Gdx.files.external("guides.svg");
+        if (!file.exists()) file = Gdx.files.external("guides.csv");
+        if (!file.exists()) {
+            Gdx.app.log(TAG, "no guides.svg or guides.csv to import");
+            return;
         }
-
-        for (int i = 0; i < destStart.size; i++){
-            Vector2 s = destStart.get(i);
-            Vector2 e = destEnd.get(i);
-//			if (a.dst2(centre.get(i)) < dist){
-            float d = Intersector.distanceSegmentPoint(s, e, a);
-            if (d < dist){
-                dist = d;
-                closestIndex = i;
-                closestListS = destStart;
-                closestListE = destEnd;
-            }
+        GuideImporter importer = new GuideImporter(lines);
+        if (mode == DrawingMode.SOURCE) importer.defaultLayer = lines.source;
+        else if (mode == DrawingMode.DESTINATION) importer.defaultLayer = lines.dest;
+        else if (mode == DrawingMode.EXCLUDE) importer.defaultLayer = lines.exclude;
+        int count;
+        generator.lock.lock();
+        try {
+            count = importer.importFile(file);
+            lines.updateAdjustedSourceLines();
+        } finally {
+            generator.lock.unlock();
         }
-
-        for (int i = 0; i < excludeStart.size; i++){
-            Vector2 s = excludeStart.get(i);
-            Vector2 e = excludeEnd.get(i);
-//			if (a.dst2(centre.get(i)) < dist){
-            float d = Intersector.distanceSegmentPoint(s, e, a);
-            if (d < dist){
-                dist = d;
-                closestIndex = i;
-                closestListS = excludeStart;
-                closestListE = excludeEnd;
-            }
-        }
-
-        if (closestIndex != -1){
-            closestListS.removeIndex(closestIndex);
-            closestListE.removeIndex(closestIndex);
-            Gdx.app.log("draws", "erased");
-        }
-        makeAdjustedSourceLines();
+        Gdx.app.log(TAG, "imported " + count + " lines from " + file.name());
     }
 
-    public void makeAdjustedSourceLines() {
-        adjustedSourceStart.clear();
-        adjustedSourceEnd.clear();
-        //find smallest length
-        int smallestIndex = 0;
-        float smallestLen2 = 1000000000;
-        for (int i = 0; i < sourceStart.size; i++){
-            float len2 = sourceStart.get(i).dst2(sourceEnd.get(i));
-            if (len2 < smallestLen2){
-                smallestLen2 = len2;
-                smallestIndex = i;
-            }
-        }
-        float targetLen = (float)Math.sqrt(smallestLen2)/3f;
-        for (int i = 0; i < sourceStart.size; i++){
-            Vector2 s = sourceStart.get(i);
-            Vector2 e = sourceEnd.get(i);
-            int segments = MathUtils.round((s.dst(e)) / targetLen);
-            for (int seg = 0; seg < segments; seg++){
-                float a = 1f/segments;
-                float alpha = a * seg;
-                float endAlpha = a * (seg + 1);
-
-                Vector2 st = new Vector2(s);
-                Vector2 en = new Vector2(s);
-                st.lerp(e, alpha);
-                en.lerp(e, endAlpha);
-
-                adjustedSourceStart.add(st);
-                adjustedSourceEnd.add(en);
-//                Gdx.app.log(TAG, "adj " + st + en + " : " + i);
-            }
-
+    private void erase(float x, float y) {
+        Gdx.app.log("draws", "erase");
+        SegmentStore closestList = lines.pick(x, y, Float.MAX_VALUE, pickIndex);
+        if (closestList != null){
+            lines.removeLine(closestList, pickIndex[0]);
+            Gdx.app.log("draws", "erased");
         }
-        shouldStopGenerating = new boolean[adjustedSourceStart.size];
-        shouldStopTotal = 0;
     }
 }
@@ -0,0 +1,113 @@
+package ninja.trek.brownian;
+
+import com.badlogic.gdx.files.FileHandle;
+
+/**
+ * Counters and timers for one createTree job, for tuning and regression tracking. The generator fills in
+ * everything except the render timings, which are up to whatever draws the tree.
+ */
+public class GenerationStats {
+	private static final String[] COLUMNS = {"lines", "tries", "steps", "leaps", "collisionTests", "outOfBounds", "excluded",
+		"sourcesStopped", "generationMillis", "renderMillis", "frames", "stepsPerLine", "collisionTestsPerStep", "outOfBoundsRate",
+		"linesPerSecond"};
+
+	/** Lines stuck to the tree. */
+	public int lines;
+	/** Walkers started. */
+	public long tries;
+	/** Steps walked, counting those leaps stood in for. */
+	public long steps;
+	public long leaps;
+	/** Segment intersection tests against the tree and guide lines. */
+	public long collisionTests;
+	/** Walkers that left the canvas, or wandered too far from it when launched near the tree. */
+	public long outOfBounds;
+	/** Walkers that hit an exclude line. */
+	public long excluded;
+	/** Source lines that stopped generating during the job. */
+	public int sourcesStopped;
+	/** Time spent growing the tree. */
+	public long generationNanos;
+	public long renderNanos;
+	public int frames;
+
+	public void reset() {
+		lines = 0;
+		tries = steps = leaps = collisionTests = outOfBounds = excluded = 0;
+		sourcesStopped = 0;
+		generationNanos = renderNanos = 0;
+		frames = 0;
+	}
+
+	/** Adds the walk counters of another, as kept per walker while walking in parallel. */
+	public void addWalks(GenerationStats other) {
+		steps += other.steps;
+		leaps += other.leaps;
+		collisionTests += other.collisionTests;
+		outOfBounds += other.outOfBounds;
+		excluded += other.excluded;
+	}
+
+	/** Adds every counter and timer of another, as when a job is split up and grown in parts. */
+	public void add(GenerationStats other) {
+		addWalks(other);
+		lines += other.lines;
+		tries += other.tries;
+		sourcesStopped += other.sourcesStopped;
+		generationNanos += other.generationNanos;
+		renderNanos += other.renderNanos;
+		frames += other.frames;
+	}
+
+	public float stepsPerLine() {
+		return lines == 0 ? 0 : (float)steps / lines;
+	}
+
+	public float collisionTestsPerStep() {
+		return steps == 0 ? 0 : (float)collisionTests / steps;
+	}
+
+	/** Fraction of walkers lost out of bounds. */
+	public float outOfBoundsRate() {
+		return tries == 0 ? 0 : (float)outOfBounds / tries;
+	}
+
+	public float linesPerSecond() {
+		return generationNanos == 0 ? 0 : lines / (generationNanos / 1e9f);
+	}
+
+	public static String csvHeader() {
+		StringBuilder out = new StringBuilder();
+		for (int i = 0; i < COLUMNS.length; i++) out.append(i == 0 ? "" : ",").append(COLUMNS[i]);
+		return out.toString();
+	}
+
+	public String toCsv() {
+		Object[] values = values();
+		StringBuilder out = new StringBuilder();
+		for (int i = 0; i < values.length; i++) out.append(i == 0 ? "" : ",").append(values[i]);
+		return out.toString();
+	}
+
+	public String toJson() {
+		Object[] values = values();
+		StringBuilder out = new StringBuilder("{");
+		for (int i = 0; i < values.length; i++) out.append(i == 0 ? "" : ", ").append('"').append(COLUMNS[i]).append("\": ").append(values[i]);
+		return out.append('}').toString();
+	}
+
+	/** Adds a row to a CSV file, starting it with the header if it is new. */
+	public void appendCsv(FileHandle file) {
+		String row = toCsv() + "\n";
+		file.writeString(file.exists() ? row : csvHeader() + "\n" + row, true);
+	}
+
+	public void writeJson(FileHandle file) {
+		file.writeString(toJson() + "\n", false);
+	}
+
+	private Object[] values() {
+		return new Object[] {lines, tries, steps, leaps, collisionTests, outOfBounds, excluded, sourcesStopped, generationNanos / 1000000,
+			renderNanos / 1000000, frames, stepsPerLine(), collisionTestsPerStep(), outOfBoundsRate(), linesPerSecond()};
+	}
+}
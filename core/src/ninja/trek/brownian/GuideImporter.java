@@ -0,0 +1,745 @@
+package ninja.trek.brownian;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.math.Affine2;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.FloatArray;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads guide lines from SVG drawings and CSV polylines a character at a time, without building a document, so a
+ * file takes memory for the lines it holds and no more, besides an SVG element's own lines waiting for its end tag,
+ * since its transform and layer can come after its path data. Lines are added to the stores directly; then call
+ * updateAdjustedSourceLines or makeAdjustedSourceLines, holding the generator's lock as for any change to the lines.
+ * <p>
+ * From SVG, path, line, polyline, polygon, rect, circle and ellipse elements are read, through their transforms,
+ * with curves and arcs cut into straight lines. Coordinates are taken as they are, as SVGExporter writes them; the
+ * viewBox is ignored. Shapes inside defs, symbols, markers, patterns, masks and clip paths are left out.
+ * <p>
+ * A CSV row is a polyline of x, y pairs, separated by commas, semicolons or spaces. Rows holding a single point
+ * join into one polyline until a blank row. A row can start with the layer it goes to, and rows starting with
+ * anything else that isn't a number, like a header, are skipped, as are rows starting with #.
+ */
+public class GuideImporter {
+	private static final int BUFFER_SIZE = 1 << 16;
+	// most straight lines a single curve is cut into, however tight the tolerance
+	private static final int MAX_CURVE_LINES = 1024;
+	private static final int NONE = -2;
+	private static final float LINE = 0, QUAD = 1, CUBIC = 2, ARC = 3;
+
+	/** Curves are cut into straight lines straying at most this far from them, in canvas units. */
+	public float tolerance = 0.5f;
+	/** Where shapes that name no layer go; null leaves them out. */
+	public SegmentStore defaultLayer;
+	/**
+	 * Whether a shape goes to the layer it or a group around it names by id, class or label: source, dest or
+	 * destination, or exclude. When false everything goes to defaultLayer.
+	 */
+	public boolean namedLayers = true;
+	/** Applied to every point after the file's own transforms, for example to flip or scale a drawing onto the canvas. */
+	public final Affine2 transform = new Affine2();
+
+	private final GuideLines lines;
+	private Reader reader;
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private int position, limit;
+	// the quote that ends the attribute value being read, NONE outside one
+	private int valueEnd = NONE;
+	private int added;
+
+	// the open elements' transforms and layers, and whether they are in something that isn't drawn
+	private final Array<Affine2> matrices = new Array<Affine2>();
+	private SegmentStore[] layers = new SegmentStore[16];
+	private boolean[] hidden = new boolean[16];
+	private int depth;
+	// the element being read: its name, geometry before its transform, and attributes
+	private final StringBuilder name = new StringBuilder(), attribute = new StringBuilder(), word = new StringBuilder();
+	private final FloatArray pending = new FloatArray();
+	private final Affine2 own = new Affine2(), matrix = new Affine2();
+	private final float[] transformArgs = new float[6];
+	private SegmentStore ownLayer;
+	private float x, y, width, height, x1, y1, x2, y2, cx, cy, r, rx, ry;
+	private float pathX, pathY;
+
+	public GuideImporter(GuideLines lines) {
+		this.lines = lines;
+	}
+
+	/** Reads an .svg file, or polylines from any other, returning the number of lines added. */
+	public int importFile(FileHandle file) {
+		Reader reader = file.reader(BUFFER_SIZE, "UTF-8");
+		try {
+			int count = file.extension().equalsIgnoreCase("svg") ? importSvg(reader) : importCsv(reader);
+			reader.close();
+			return count;
+		} catch (IOException e) {
+			throw new RuntimeException("Couldn't import " + file, e);
+		}
+	}
+
+	public int importSvg(Reader reader) throws IOException {
+		begin(reader);
+		matrices.get(0).set(transform);
+		layers[0] = defaultLayer;
+		hidden[0] = false;
+		while (true) {
+			//text between tags isn't drawn
+			int c;
+			while ((c = peek()) != -1 && c != '<') take();
+			if (c == -1) break;
+			take();
+			c = peek();
+			if (c == '!') skipDeclaration();
+			else if (c == '?') skipPast("?>");
+			else if (c == '/') {
+				skipPast(">");
+				if (depth > 0) depth--;
+			} else startTag();
+		}
+		return finish();
+	}
+
+	public int importCsv(Reader reader) throws IOException {
+		begin(reader);
+		boolean running = false;
+		SegmentStore runningLayer = null;
+		float lastX = 0, lastY = 0;
+		while (peek() != -1) {
+			SegmentStore layer = defaultLayer;
+			int points = 0;
+			float firstX = 0, firstY = 0, prevX = 0, prevY = 0;
+			boolean blank = true, skip = false;
+			while (true) {
+				int c = peek();
+				if (c == -1 || c == '\n' || c == '\r') break;
+				if (skip || isCsvSeparator(c)) {
+					take();
+					continue;
+				}
+				boolean first = blank;
+				blank = false;
+				if (c == '#' && first) {
+					skip = true;
+					continue;
+				}
+				double px = number();
+				if (Double.isNaN(px)) {
+					readWord();
+					SegmentStore named = layerNamed(word);
+					if (first && named != null) {
+						if (namedLayers) layer = named;
+					} else skip = true;
+					continue;
+				}
+				while (isCsvSeparator(peek())) take();
+				double py = number();
+				if (Double.isNaN(py)) {
+					skip = true;
+					continue;
+				}
+				float tx = transformX(transform, (float)px, (float)py), ty = transformY(transform, (float)px, (float)py);
+				if (points == 0) {
+					firstX = tx;
+					firstY = ty;
+				} else {
+					//a row of several points is a polyline of its own
+					if (points == 1) running = false;
+					add(layer, prevX, prevY, tx, ty);
+				}
+				prevX = tx;
+				prevY = ty;
+				points++;
+			}
+			if (peek() == '\r') take();
+			if (peek() == '\n') take();
+			if (points == 1) {
+				//rows of one point each join up, while they go to the same layer
+				if (running && runningLayer == layer) add(layer, lastX, lastY, firstX, firstY);
+				running = true;
+				runningLayer = layer;
+				lastX = firstX;
+				lastY = firstY;
+			} else if (blank) running = false;
+		}
+		return finish();
+	}
+
+	private void begin(Reader reader) {
+		this.reader = reader;
+		position = limit = 0;
+		valueEnd = NONE;
+		added = 0;
+		depth = 0;
+		if (matrices.size == 0) matrices.add(new Affine2());
+	}
+
+	private int finish() {
+		reader = null;
+		if (added > 0) lines.linesVersion++;
+		return added;
+	}
+
+	private void startTag() throws IOException {
+		readName(name);
+		//namespaced names, like svg:path, count as their local name
+		int colon = name.lastIndexOf(":");
+		if (colon != -1) name.delete(0, colon + 1);
+		String tag = name.toString();
+		boolean path = tag.equals("path"), points = tag.equals("polyline") || tag.equals("polygon");
+		own.idt();
+		ownLayer = null;
+		pending.clear();
+		x = y = width = height = x1 = y1 = x2 = y2 = cx = cy = r = 0;
+		rx = ry = -1;
+		boolean closed = false;
+		while (true) {
+			skipWhitespace();
+			int c = peek();
+			if (c == -1) return;
+			if (c == '>') {
+				take();
+				break;
+			}
+			if (c == '/') {
+				take();
+				closed = true;
+				continue;
+			}
+			readName(attribute);
+			skipWhitespace();
+			if (peek() != '=') continue;
+			take();
+			skipWhitespace();
+			int quote = peek();
+			if (quote != '"' && quote != '\'') continue;
+			take();
+			valueEnd = quote;
+			readAttribute(path, points);
+			//whatever of the value wasn't read
+			while (peek() != -1) take();
+			valueEnd = NONE;
+			take();
+		}
+
+		int parent = depth;
+		Affine2 matrix = push().set(matrices.get(parent)).mul(own);
+		layers[depth] = namedLayers && ownLayer != null ? ownLayer : layers[parent];
+		hidden[depth] = hidden[parent] || tag.equals("defs") || tag.equals("symbol") || tag.equals("marker")
+			|| tag.equals("pattern") || tag.equals("mask") || tag.equals("clipPath");
+		SegmentStore layer = layers[depth];
+		if (!hidden[depth] && layer != null) {
+			if (tag.equals("line")) pending.addAll(LINE, x1, y1, x2, y2);
+			else if (tag.equals("rect") && width > 0 && height > 0) {
+				pending.addAll(LINE, x, y, x + width, y);
+				pending.addAll(LINE, x + width, y, x + width, y + height);
+				pending.addAll(LINE, x + width, y + height, x, y + height);
+				pending.addAll(LINE, x, y + height, x, y);
+			} else if (tag.equals("circle") && r > 0) ellipse(cx, cy, r, r);
+			else if (tag.equals("ellipse") && rx > 0 && ry > 0) ellipse(cx, cy, rx, ry);
+			else if (tag.equals("polygon") && pending.size > 0) pending.addAll(LINE, pending.get(pending.size - 2), pending.get(pending.size - 1), pathX, pathY);
+			emit(matrix, layer);
+		}
+		if (closed) depth--;
+	}
+
+	private void readAttribute(boolean path, boolean points) throws IOException {
+		int colon = attribute.lastIndexOf(":");
+		String local = attribute.substring(colon + 1);
+		if (path && local.equals("d")) readPath();
+		else if (points && local.equals("points")) readPoints();
+		else if (local.equals("transform")) readTransform(own);
+		else if (local.equals("id") || local.equals("class") || local.equals("label")) {
+			//any word of the value can name the layer, as in a group labelled "Source lines"
+			while (peek() != -1) {
+				int c = peek();
+				if (!Character.isLetter(c)) {
+					take();
+					continue;
+				}
+				readWord();
+				SegmentStore named = layerNamed(word);
+				if (named != null) ownLayer = named;
+			}
+		} else if (local.length() <= 6) {
+			float value = (float)numberAfterSeparators();
+			if (Float.isNaN(value)) return;
+			if (local.equals("x")) x = value;
+			else if (local.equals("y")) y = value;
+			else if (local.equals("width")) width = value;
+			else if (local.equals("height")) height = value;
+			else if (local.equals("x1")) x1 = value;
+			else if (local.equals("y1")) y1 = value;
+			else if (local.equals("x2")) x2 = value;
+			else if (local.equals("y2")) y2 = value;
+			else if (local.equals("cx")) cx = value;
+			else if (local.equals("cy")) cy = value;
+			else if (local.equals("r")) r = value;
+			else if (local.equals("rx")) rx = value;
+			else if (local.equals("ry")) ry = value;
+		}
+	}
+
+	// polyline points, which polygon closes back to pathX, pathY
+	private void readPoints() throws IOException {
+		boolean first = true;
+		float lastX = 0, lastY = 0;
+		while (true) {
+			double px = numberAfterSeparators(), py = numberAfterSeparators();
+			if (Double.isNaN(py)) return;
+			if (first) {
+				pathX = (float)px;
+				pathY = (float)py;
+				first = false;
+			} else pending.addAll(LINE, lastX, lastY, (float)px, (float)py);
+			lastX = (float)px;
+			lastY = (float)py;
+		}
+	}
+
+	private void readPath() throws IOException {
+		float curX = 0, curY = 0, startX = 0, startY = 0, controlX = 0, controlY = 0;
+		int command = 0, previous = 0;
+		while (true) {
+			skipSeparators();
+			int c = peek();
+			if (c == -1) return;
+			if (Character.isLetter(c) && c != 'e' && c != 'E') {
+				take();
+				command = c;
+			} else if (command == 0 || command == 'z' || command == 'Z') return;
+			//pairs after a move are lines
+			else if (command == 'M') command = 'L';
+			else if (command == 'm') command = 'l';
+			boolean relative = Character.isLowerCase(command);
+			float ox = relative ? curX : 0, oy = relative ? curY : 0;
+			float ax, ay, bx, by, ex, ey;
+			switch (Character.toUpperCase(command)) {
+				case 'M':
+					ex = arg() + ox;
+					ey = arg() + oy;
+					if (Float.isNaN(ey)) return;
+					curX = startX = ex;
+					curY = startY = ey;
+					break;
+				case 'L':
+				case 'H':
+				case 'V':
+					char upper = Character.toUpperCase((char)command);
+					ex = upper == 'V' ? curX : arg() + ox;
+					ey = upper == 'H' ? curY : arg() + oy;
+					if (Float.isNaN(ex) || Float.isNaN(ey)) return;
+					pending.addAll(LINE, curX, curY, ex, ey);
+					curX = ex;
+					curY = ey;
+					break;
+				case 'C':
+				case 'S':
+					if (Character.toUpperCase(command) == 'C') {
+						ax = arg() + ox;
+						ay = arg() + oy;
+					} else if (previous == 'C' || previous == 'S') {
+						ax = 2 * curX - controlX;
+						ay = 2 * curY - controlY;
+					} else {
+						ax = curX;
+						ay = curY;
+					}
+					bx = arg() + ox;
+					by = arg() + oy;
+					ex = arg() + ox;
+					ey = arg() + oy;
+					if (Float.isNaN(ax) || Float.isNaN(ey)) return;
+					pending.addAll(CUBIC, curX, curY, ax, ay, bx, by, ex, ey);
+					controlX = bx;
+					controlY = by;
+					curX = ex;
+					curY = ey;
+					break;
+				case 'Q':
+				case 'T':
+					if (Character.toUpperCase(command) == 'Q') {
+						ax = arg() + ox;
+						ay = arg() + oy;
+					} else if (previous == 'Q' || previous == 'T') {
+						ax = 2 * curX - controlX;
+						ay = 2 * curY - controlY;
+					} else {
+						ax = curX;
+						ay = curY;
+					}
+					ex = arg() + ox;
+					ey = arg() + oy;
+					if (Float.isNaN(ax) || Float.isNaN(ey)) return;
+					pending.addAll(QUAD, curX, curY, ax, ay, ex, ey);
+					controlX = ax;
+					controlY = ay;
+					curX = ex;
+					curY = ey;
+					break;
+				case 'A':
+					float arcRx = arg(), arcRy = arg(), rotation = arg();
+					int large = flag(), sweep = flag();
+					ex = arg() + ox;
+					ey = arg() + oy;
+					if (Float.isNaN(ey) || large < 0 || sweep < 0) return;
+					arc(curX, curY, arcRx, arcRy, rotation, large == 1, sweep == 1, ex, ey);
+					curX = ex;
+					curY = ey;
+					break;
+				case 'Z':
+					pending.addAll(LINE, curX, curY, startX, startY);
+					curX = startX;
+					curY = startY;
+					break;
+				default:
+					//not a path command, so the rest of the path is in error and isn't drawn
+					return;
+			}
+			previous = Character.toUpperCase(command);
+		}
+	}
+
+	// the arc from (x0, y0) to (ex, ey), as in SVG's implementation notes, converted to its center
+	private void arc(float x0, float y0, float arcRx, float arcRy, float degrees, boolean large, boolean sweep, float ex, float ey) {
+		if (x0 == ex && y0 == ey) return;
+		arcRx = Math.abs(arcRx);
+		arcRy = Math.abs(arcRy);
+		if (arcRx == 0 || arcRy == 0) {
+			pending.addAll(LINE, x0, y0, ex, ey);
+			return;
+		}
+		double phi = Math.toRadians(degrees), cos = Math.cos(phi), sin = Math.sin(phi);
+		double dx = (x0 - ex) / 2.0, dy = (y0 - ey) / 2.0;
+		double x1p = cos * dx + sin * dy, y1p = -sin * dx + cos * dy;
+		double rx = arcRx, ry = arcRy;
+		//radii too small to reach are scaled up until they just do
+		double lambda = x1p * x1p / (rx * rx) + y1p * y1p / (ry * ry);
+		if (lambda > 1) {
+			rx *= Math.sqrt(lambda);
+			ry *= Math.sqrt(lambda);
+		}
+		double num = rx * rx * ry * ry - rx * rx * y1p * y1p - ry * ry * x1p * x1p;
+		double den = rx * rx * y1p * y1p + ry * ry * x1p * x1p;
+		double coef = Math.sqrt(Math.max(0, num / den)) * (large == sweep ? -1 : 1);
+		double cxp = coef * rx * y1p / ry, cyp = -coef * ry * x1p / rx;
+		double centerX = cos * cxp - sin * cyp + (x0 + ex) / 2.0, centerY = sin * cxp + cos * cyp + (y0 + ey) / 2.0;
+		double start = Math.atan2((y1p - cyp) / ry, (x1p - cxp) / rx);
+		double sweepAngle = Math.atan2((-y1p - cyp) / ry, (-x1p - cxp) / rx) - start;
+		if (sweep && sweepAngle < 0) sweepAngle += Math.PI * 2;
+		else if (!sweep && sweepAngle > 0) sweepAngle -= Math.PI * 2;
+		pending.addAll(ARC, x0, y0, ex, ey, (float)centerX, (float)centerY, (float)rx, (float)ry, (float)phi, (float)start, (float)sweepAngle);
+	}
+
+	private void ellipse(float centerX, float centerY, float radiusX, float radiusY) {
+		pending.addAll(ARC, centerX + radiusX, centerY, centerX + radiusX, centerY, centerX, centerY, radiusX, radiusY, 0, 0, MathUtils.PI2);
+	}
+
+	// adds the element's geometry to layer through its transform, cutting curves to the tolerance there
+	private void emit(Affine2 m, SegmentStore layer) {
+		//how much the transform stretches lengths at most, so curves are cut finely enough once drawn
+		float a = m.m00 * m.m00 + m.m01 * m.m01 + m.m10 * m.m10 + m.m11 * m.m11, det = m.det();
+		float stretch = (float)Math.sqrt((a + Math.sqrt(Math.max(0, a * a - 4 * det * det))) / 2);
+		float tolerance = Math.max(this.tolerance, 1e-4f) / Math.max(stretch, 1e-6f);
+		float[] p = pending.items;
+		for (int i = 0; i < pending.size; ) {
+			float type = p[i];
+			if (type == LINE) {
+				addLocal(m, layer, p[i + 1], p[i + 2], p[i + 3], p[i + 4]);
+				i += 5;
+			} else if (type == QUAD) {
+				//Wang's bound on how far the straight lines stray, from the control points' second differences
+				float ddx = p[i + 1] - 2 * p[i + 3] + p[i + 5], ddy = p[i + 2] - 2 * p[i + 4] + p[i + 6];
+				int n = pieces((float)Math.sqrt(0.25f * (float)Math.sqrt(ddx * ddx + ddy * ddy) / tolerance));
+				float lastX = p[i + 1], lastY = p[i + 2];
+				for (int k = 1; k <= n; k++) {
+					float t = k / (float)n, u = 1 - t;
+					float px = k == n ? p[i + 5] : u * u * p[i + 1] + 2 * u * t * p[i + 3] + t * t * p[i + 5];
+					float py = k == n ? p[i + 6] : u * u * p[i + 2] + 2 * u * t * p[i + 4] + t * t * p[i + 6];
+					addLocal(m, layer, lastX, lastY, px, py);
+					lastX = px;
+					lastY = py;
+				}
+				i += 7;
+			} else if (type == CUBIC) {
+				float ddx = Math.max(Math.abs(p[i + 1] - 2 * p[i + 3] + p[i + 5]), Math.abs(p[i + 3] - 2 * p[i + 5] + p[i + 7]));
+				float ddy = Math.max(Math.abs(p[i + 2] - 2 * p[i + 4] + p[i + 6]), Math.abs(p[i + 4] - 2 * p[i + 6] + p[i + 8]));
+				int n = pieces((float)Math.sqrt(0.75f * (float)Math.sqrt(ddx * ddx + ddy * ddy) / tolerance));
+				float lastX = p[i + 1], lastY = p[i + 2];
+				for (int k = 1; k <= n; k++) {
+					float t = k / (float)n, u = 1 - t;
+					float px = k == n ? p[i + 7] : u * u * u * p[i + 1] + 3 * u * u * t * p[i + 3] + 3 * u * t * t * p[i + 5] + t * t * t * p[i + 7];
+					float py = k == n ? p[i + 8] : u * u * u * p[i + 2] + 3 * u * u * t * p[i + 4] + 3 * u * t * t * p[i + 6] + t * t * t * p[i + 8];
+					addLocal(m, layer, lastX, lastY, px, py);
+					lastX = px;
+					lastY = py;
+				}
+				i += 9;
+			} else {
+				float centerX = p[i + 5], centerY = p[i + 6], radiusX = p[i + 7], radiusY = p[i + 8];
+				float phi = p[i + 9], start = p[i + 10], sweep = p[i + 11];
+				//each line cuts off a sliver no deeper than the tolerance
+				float radius = Math.max(radiusX, radiusY), step = tolerance < radius ? 2 * (float)Math.acos(1 - tolerance / radius) : MathUtils.PI;
+				int n = pieces(Math.abs(sweep) / step);
+				float cos = MathUtils.cos(phi), sin = MathUtils.sin(phi);
+				float lastX = p[i + 1], lastY = p[i + 2];
+				for (int k = 1; k <= n; k++) {
+					float angle = start + sweep * k / n, ex = radiusX * MathUtils.cos(angle), ey = radiusY * MathUtils.sin(angle);
+					float px = k == n ? p[i + 3] : centerX + ex * cos - ey * sin;
+					float py = k == n ? p[i + 4] : centerY + ex * sin + ey * cos;
+					addLocal(m, layer, lastX, lastY, px, py);
+					lastX = px;
+					lastY = py;
+				}
+				i += 12;
+			}
+		}
+		pending.clear();
+		//one huge path shouldn't keep its memory for the rest of the file
+		if (pending.items.length > BUFFER_SIZE) pending.shrink();
+	}
+
+	private static int pieces(float n) {
+		if (Float.isNaN(n)) return 1;
+		return MathUtils.clamp(MathUtils.ceil(n), 1, MAX_CURVE_LINES);
+	}
+
+	private void addLocal(Affine2 m, SegmentStore layer, float ax, float ay, float bx, float by) {
+		add(layer, transformX(m, ax, ay), transformY(m, ax, ay), transformX(m, bx, by), transformY(m, bx, by));
+	}
+
+	private void add(SegmentStore layer, float ax, float ay, float bx, float by) {
+		if (layer == null || (ax == bx && ay == by)) return;
+		layer.add(ax, ay, bx, by);
+		added++;
+	}
+
+	private static float transformX(Affine2 m, float x, float y) {
+		return m.m00 * x + m.m01 * y + m.m02;
+	}
+
+	private static float transformY(Affine2 m, float x, float y) {
+		return m.m10 * x + m.m11 * y + m.m12;
+	}
+
+	// reads a transform list, each one applied after the ones before it
+	private void readTransform(Affine2 out) throws IOException {
+		while (true) {
+			skipSeparators();
+			if (peek() == -1) return;
+			readWord();
+			skipWhitespace();
+			if (peek() != '(') return;
+			take();
+			float[] v = transformArgs;
+			int count = 0;
+			while (count < v.length) {
+				double value = numberAfterSeparators();
+				if (Double.isNaN(value)) break;
+				v[count++] = (float)value;
+			}
+			skipSeparators();
+			if (peek() != ')') return;
+			take();
+			String type = word.toString();
+			if (type.equals("matrix") && count == 6) {
+				matrix.m00 = v[0];
+				matrix.m10 = v[1];
+				matrix.m01 = v[2];
+				matrix.m11 = v[3];
+				matrix.m02 = v[4];
+				matrix.m12 = v[5];
+				out.mul(matrix);
+			} else if (type.equals("translate") && count >= 1) out.translate(v[0], count > 1 ? v[1] : 0);
+			else if (type.equals("scale") && count >= 1) out.scale(v[0], count > 1 ? v[1] : v[0]);
+			else if (type.equals("rotate") && count == 1) out.rotate(v[0]);
+			else if (type.equals("rotate") && count == 3) out.translate(v[1], v[2]).rotate(v[0]).translate(-v[1], -v[2]);
+			else if (type.equals("skewX") && count == 1) out.shear(MathUtils.sinDeg(v[0]) / MathUtils.cosDeg(v[0]), 0);
+			else if (type.equals("skewY") && count == 1) out.shear(0, MathUtils.sinDeg(v[0]) / MathUtils.cosDeg(v[0]));
+		}
+	}
+
+	private Affine2 push() {
+		depth++;
+		if (depth == matrices.size) matrices.add(new Affine2());
+		if (depth == layers.length) {
+			SegmentStore[] newLayers = new SegmentStore[depth * 2];
+			System.arraycopy(layers, 0, newLayers, 0, depth);
+			layers = newLayers;
+			boolean[] newHidden = new boolean[depth * 2];
+			System.arraycopy(hidden, 0, newHidden, 0, depth);
+			hidden = newHidden;
+		}
+		return matrices.get(depth);
+	}
+
+	private SegmentStore layerNamed(StringBuilder word) {
+		String name = word.toString().toLowerCase();
+		if (name.equals("source")) return lines.source;
+		if (name.equals("dest") || name.equals("destination")) return lines.dest;
+		if (name.equals("exclude")) return lines.exclude;
+		return null;
+	}
+
+	private float arg() throws IOException {
+		return (float)numberAfterSeparators();
+	}
+
+	// an arc flag, a single 0 or 1 that may run straight into what follows; -1 when it's something else
+	private int flag() throws IOException {
+		skipSeparators();
+		int c = peek();
+		if (c != '0' && c != '1') return -1;
+		take();
+		return c - '0';
+	}
+
+	private double numberAfterSeparators() throws IOException {
+		skipSeparators();
+		return number();
+	}
+
+	// a number starting at the next character, or NaN when there isn't one
+	private double number() throws IOException {
+		int c = peek();
+		boolean negative = c == '-';
+		if (c == '-' || c == '+') {
+			take();
+			c = peek();
+		}
+		long mantissa = 0;
+		int exponent = 0, digits = 0;
+		boolean any = false;
+		//past 18 significant digits a long can't hold more, and floats don't need them
+		while (c >= '0' && c <= '9') {
+			if (digits < 18) {
+				mantissa = mantissa * 10 + c - '0';
+				if (mantissa != 0) digits++;
+			} else exponent++;
+			any = true;
+			take();
+			c = peek();
+		}
+		if (c == '.') {
+			take();
+			c = peek();
+			while (c >= '0' && c <= '9') {
+				if (digits < 18) {
+					mantissa = mantissa * 10 + c - '0';
+					if (mantissa != 0) digits++;
+					exponent--;
+				}
+				any = true;
+				take();
+				c = peek();
+			}
+		}
+		if (!any) return Double.NaN;
+		if (c == 'e' || c == 'E') {
+			take();
+			c = peek();
+			boolean negativeExponent = c == '-';
+			if (c == '-' || c == '+') {
+				take();
+				c = peek();
+			}
+			int e = 0;
+			while (c >= '0' && c <= '9') {
+				e = Math.min(e * 10 + c - '0', 1000);
+				take();
+				c = peek();
+			}
+			exponent += negativeExponent ? -e : e;
+		}
+		double value = exponent >= 0 ? mantissa * Math.pow(10, exponent) : mantissa / Math.pow(10, -exponent);
+		return negative ? -value : value;
+	}
+
+	private void readName(StringBuilder out) throws IOException {
+		out.setLength(0);
+		while (true) {
+			int c = peek();
+			if (c == -1 || c == '>' || c == '/' || c == '=' || Character.isWhitespace(c)) return;
+			out.append((char)c);
+			take();
+		}
+	}
+
+	// letters and digits, kept to a short length since only layer and transform names are looked at
+	private void readWord() throws IOException {
+		word.setLength(0);
+		while (true) {
+			int c = peek();
+			if (c == -1 || !Character.isLetterOrDigit(c)) return;
+			if (word.length() < 32) word.append((char)c);
+			take();
+		}
+	}
+
+	private void skipWhitespace() throws IOException {
+		int c;
+		while ((c = peek()) != -1 && Character.isWhitespace(c)) take();
+	}
+
+	private static boolean isCsvSeparator(int c) {
+		return c == ',' || c == ';' || c == ' ' || c == '\t' || c == '"';
+	}
+
+	private void skipSeparators() throws IOException {
+		int c;
+		while ((c = peek()) != -1 && (c == ',' || Character.isWhitespace(c))) take();
+	}
+
+	// comments, CDATA and doctypes, the last of which can hold bracketed declarations with > in them
+	private void skipDeclaration() throws IOException {
+		take();
+		if (peek() == '-') {
+			skipPast("-->");
+			return;
+		}
+		if (peek() == '[') {
+			skipPast("]]>");
+			return;
+		}
+		int brackets = 0, c;
+		while ((c = peek()) != -1) {
+			take();
+			if (c == '[') brackets++;
+			else if (c == ']') brackets--;
+			else if (c == '>' && brackets <= 0) return;
+		}
+	}
+
+	private void skipPast(String end) throws IOException {
+		int matched = 0, c;
+		while ((c = peek()) != -1) {
+			take();
+			if (c == end.charAt(matched)) {
+				if (++matched == end.length()) return;
+			} else if (c == end.charAt(0)) {
+				//in --> and ]]> a run of the first character still leaves the last two to match
+				if (matched == 0 || end.charAt(matched - 1) != c) matched = 1;
+			} else matched = 0;
+		}
+	}
+
+	// the next character without taking it, or -1 at the end of the input or of the attribute value being read
+	private int peek() throws IOException {
+		if (position == limit) {
+			limit = reader.read(buffer, 0, buffer.length);
+			position = 0;
+			if (limit <= 0) {
+				limit = 0;
+				return -1;
+			}
+		}
+		char c = buffer[position];
+		return c == valueEnd ? -1 : c;
+	}
+
+	private void take() {
+		if (position < limit) position++;
+	}
+}
@@ -0,0 +1,491 @@
+package ninja.trek.brownian;
+
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.IntArray;
+
+import java.util.Arrays;
+
+/**
+ * The drawn source, destination and exclude lines a tree is grown against. Lines drawn and erased with addLine and
+ * removeLine update the source pieces and the grids over each layer in place; after changing the stores directly,
+ * call updateAdjustedSourceLines or makeAdjustedSourceLines.
+ */
+public class GuideLines {
+    public final SegmentStore source = new SegmentStore();
+    public final SegmentStore adjustedSource = new SegmentStore();
+    public final SegmentStore exclude = new SegmentStore();
+
+    public final SegmentStore dest = new SegmentStore();
+
+    public boolean[] shouldStopGenerating = new boolean[0];
+    public int shouldStopTotal;
+    public int linesVersion;
+
+    /**
+     * Length of the pieces source lines are split into, each of which stops generating on its own once the tree
+     * reaches it. 0 picks a third of the shortest source line, so a new shortest line splits them all again.
+     */
+    public float sourceSegmentLength;
+
+    // grids over each layer and over the pieces, made by index for the generator's canvas
+    SegmentGrid sourceGrid, pieceGrid, destGrid, excludeGrid;
+    // bumped when the lines changed in a way only starting over can follow, rather than one line at a time
+    int rebuildVersion;
+    // the area source lines were drawn or erased in, and whether dest lines were, since clearChanges
+    float changedX0 = Float.MAX_VALUE, changedY0 = Float.MAX_VALUE, changedX1 = -Float.MAX_VALUE, changedY1 = -Float.MAX_VALUE;
+    boolean destChanged;
+
+    private final Vector2 st = new Vector2(), en = new Vector2(), e = new Vector2();
+    // the source lines adjustedSource was split from, kept in step with source by the edits here
+    private final SegmentStore splitSource = new SegmentStore();
+    // which source line each piece was split from; removeLine moves pieces, so a line's aren't always together
+    private int[] pieceLine = new int[16];
+    // whether removeLine moved pieces out of the order a fresh split gives
+    boolean shuffled;
+    private float splitLength;
+    private final WeightedSampler activeSources = new WeightedSampler();
+    private float[] pieceWeights = new float[0];
+    private int[] matched = new int[0];
+    private float gridWidth, gridHeight, gridCellSize;
+    // linesVersion when the grids last held every line
+    private int indexedVersion = -1;
+    private final SegmentGrid.Query pickQuery = new SegmentGrid.Query();
+    private final IntArray pieces = new IntArray();
+
+    public void clear() {
+        source.clear();
+        dest.clear();
+        makeAdjustedSourceLines();
+    }
+
+    /** Splits every source line afresh, restarting any that stopped. */
+    public void makeAdjustedSourceLines() {
+        adjustedSource.clear();
+        splitLength = targetLength();
+        for (int i = 0; i < source.size; i++)
+            split(i);
+        splitSource.clear();
+        splitSource.addAll(source);
+        shouldStopTotal = 0;
+        shuffled = false;
+        updateActiveSources();
+        rebuilt();
+    }
+
+    /**
+     * Brings adjustedSource up to date after source lines were added or removed directly. Only new lines are split,
+     * and the pieces of the others keep whether they stopped, unless the piece length changed and all are split
+     * afresh.
+     */
+    public void updateAdjustedSourceLines() {
+        if (targetLength() != splitLength) {
+            makeAdjustedSourceLines();
+            return;
+        }
+        if (matched.length < source.size) matched = new int[source.size];
+        boolean appended = true;
+        for (int i = 0, next = 0; i < source.size; i++){
+            //lines are only appended or removed, so the remaining old ones come in the same order
+            int k = next;
+            while (k < splitSource.size && !sameLine(source, i, splitSource, k)) k++;
+            if (k < splitSource.size) {
+                matched[i] = k;
+                next = k + 1;
+            } else matched[i] = -1;
+            if (i < splitSource.size ? matched[i] != i : matched[i] != -1) appended = false;
+        }
+        if (appended && splitSource.size <= source.size) {
+            //the old lines are all still there, so the new ones are split onto the end like drawn ones
+            boolean current = indexedVersion == linesVersion;
+            if (current && splitSource.size == source.size) return;
+            for (int i = splitSource.size; i < source.size; i++){
+                splitSource.add(source.x0(i), source.y0(i), source.x1(i), source.y1(i));
+                addPieces(i);
+                if (sourceGrid != null) sourceGrid.insert(i, source.x0(i), source.y0(i), source.x1(i), source.y1(i));
+            }
+            if (current) edited();
+            else rebuilt();
+            return;
+        }
+        //the kept lines' pieces in the order a fresh split would give, with the new lines split between them
+        int[] order = splitOrder();
+        int[] oldStart = new int[splitSource.size + 1];
+        for (int p = 0; p < adjustedSource.size; p++)
+            oldStart[pieceLine[p] + 1]++;
+        for (int k = 0; k < splitSource.size; k++)
+            oldStart[k + 1] += oldStart[k];
+        int[] inOrder = new int[adjustedSource.size];
+        for (int p = 0; p < adjustedSource.size; p++)
+            inOrder[order == null ? p : order[p]] = p;
+        SegmentStore old = new SegmentStore(adjustedSource.size);
+        old.addAll(adjustedSource);
+        boolean[] oldStop = shouldStopGenerating;
+        shouldStopGenerating = new boolean[0];
+        adjustedSource.clear();
+        shouldStopTotal = 0;
+        for (int i = 0; i < source.size; i++){
+            int k = matched[i];
+            if (k == -1) {
+                split(i);
+                continue;
+            }
+            for (int c = oldStart[k]; c < oldStart[k + 1]; c++){
+                int p = inOrder[c], q = adjustedSource.add(old.x0(p), old.y0(p), old.x1(p), old.y1(p));
+                ensurePieceCapacity(q + 1);
+                pieceLine[q] = i;
+                shouldStopGenerating[q] = oldStop[p];
+                if (oldStop[p]) shouldStopTotal++;
+            }
+        }
+        splitSource.clear();
+        splitSource.addAll(source);
+        shuffled = false;
+        updateActiveSources();
+        rebuilt();
+    }
+
+    /**
+     * Adds a line to source, dest or exclude, returning its index. A source line is split onto the end of
+     * adjustedSource, unless it is the new shortest line and all are split afresh.
+     */
+    public int addLine(SegmentStore layer, float x0, float y0, float x1, float y1) {
+        SegmentGrid grid = grid(layer);
+        sync();
+        int i = layer.add(x0, y0, x1, y1);
+        if (layer == source) {
+            if (targetLength() != splitLength) {
+                makeAdjustedSourceLines();
+                return i;
+            }
+            splitSource.add(x0, y0, x1, y1);
+            addPieces(i);
+        } else if (layer == dest) destChanged = true;
+        if (grid != null) grid.insert(i, x0, y0, x1, y1);
+        edited();
+        return i;
+    }
+
+    /**
+     * Removes line i from source, dest or exclude, moving the layer's last line into its place so no other line
+     * changes index. A source line's pieces go with it, and the last ones move into their places.
+     */
+    public void removeLine(SegmentStore layer, int i) {
+        SegmentGrid grid = grid(layer);
+        sync();
+        if (i >= layer.size) throw new IndexOutOfBoundsException("index can't be >= size: " + i + " >= " + layer.size);
+        int last = layer.size - 1;
+        float x0 = layer.x0(i), y0 = layer.y0(i), x1 = layer.x1(i), y1 = layer.y1(i);
+        if (grid != null) {
+            grid.remove(i, x0, y0, x1, y1);
+            if (i != last) {
+                grid.remove(last, layer.x0(last), layer.y0(last), layer.x1(last), layer.y1(last));
+                grid.insert(i, layer.x0(last), layer.y0(last), layer.x1(last), layer.y1(last));
+            }
+        }
+        moveLast(layer, i);
+        if (layer == source) {
+            if (targetLength() != splitLength) {
+                makeAdjustedSourceLines();
+                return;
+            }
+            moveLast(splitSource, i);
+            changed(x0, y0, x1, y1);
+            findPieces(i, x0, y0, x1, y1);
+            //from the highest, so the last pieces moving down are never ones still to go
+            pieces.sort();
+            for (int k = pieces.size - 1; k >= 0; k--)
+                removePiece(pieces.get(k));
+            if (i != last) {
+                findPieces(last, source.x0(i), source.y0(i), source.x1(i), source.y1(i));
+                for (int k = 0; k < pieces.size; k++)
+                    pieceLine[pieces.get(k)] = i;
+            }
+        } else if (layer == dest) destChanged = true;
+        edited();
+    }
+
+    /**
+     * Finds the line nearest (x, y) in any layer, returning its layer with its index in index[0], or null when no
+     * line is within maxDist. Ties go to source, then dest, then exclude, then the lowest index.
+     */
+    public SegmentStore pick(float x, float y, float maxDist, int[] index) {
+        sync();
+        SegmentStore closest = null;
+        float dist = Float.MAX_VALUE;
+        SegmentStore[] layers = {source, dest, exclude};
+        for (SegmentStore layer : layers){
+            SegmentGrid grid = grid(layer);
+            //only a closer line can win, so later layers needn't search as far
+            int k = grid != null ? grid.nearestIndex(x, y, layer, pickQuery, Math.min(maxDist, dist)) : nearestIndex(layer, x, y);
+            if (k == -1) continue;
+            float d = SegmentGrid.distanceSegmentPoint(layer.x0(k), layer.y0(k), layer.x1(k), layer.y1(k), x, y);
+            if (d <= maxDist && d < dist) {
+                dist = d;
+                closest = layer;
+                index[0] = k;
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * Makes sure the grids cover a width by height canvas with cells of cellSize and hold every line, refilling them
+     * if the stores were changed directly since. A refill counts as a rebuild.
+     */
+    void index(float width, float height, float cellSize) {
+        if (sourceGrid == null || width != gridWidth || height != gridHeight || cellSize != gridCellSize) {
+            gridWidth = width;
+            gridHeight = height;
+            gridCellSize = cellSize;
+            sourceGrid = new SegmentGrid(width, height, cellSize);
+            pieceGrid = new SegmentGrid(width, height, cellSize);
+            destGrid = new SegmentGrid(width, height, cellSize);
+            excludeGrid = new SegmentGrid(width, height, cellSize);
+        } else if (indexedVersion == linesVersion) return;
+        fillGrids();
+        indexedVersion = linesVersion;
+        rebuildVersion++;
+    }
+
+    /** Forgets the changes recorded so far, once the generator has caught up with them. */
+    void clearChanges() {
+        changedX0 = changedY0 = Float.MAX_VALUE;
+        changedX1 = changedY1 = -Float.MAX_VALUE;
+        destChanged = false;
+    }
+
+    /**
+     * Where each piece of adjustedSource would be if the source lines were split afresh, as loading a tree file
+     * does, or null when they are in that order already.
+     */
+    int[] splitOrder() {
+        if (!shuffled) return null;
+        SegmentStore lines = splitSource;
+        int[] start = new int[lines.size + 1];
+        for (int p = 0; p < adjustedSource.size; p++)
+            start[pieceLine[p] + 1]++;
+        for (int i = 0; i < lines.size; i++)
+            start[i + 1] += start[i];
+        int[] order = new int[adjustedSource.size];
+        for (int p = 0; p < adjustedSource.size; p++){
+            //pieces are equal parts of their line, so how far along it one starts says which it is
+            int line = pieceLine[p], count = start[line + 1] - start[line];
+            float dx = lines.x1(line) - lines.x0(line), dy = lines.y1(line) - lines.y0(line);
+            float along = ((adjustedSource.x0(p) - lines.x0(line)) * dx + (adjustedSource.y0(p) - lines.y0(line)) * dy) / (dx * dx + dy * dy);
+            order[p] = start[line] + MathUtils.clamp(MathUtils.round(along * count), 0, count - 1);
+        }
+        return order;
+    }
+
+    /**
+     * Moves freshly split pieces back to where they were when splitOrder gave order, so sources are picked as they
+     * were before saving.
+     */
+    void arrangePieces(int[] order) {
+        if (order.length != adjustedSource.size) throw new RuntimeException("Saved pieces don't match the source lines: " + order.length + " != " + adjustedSource.size);
+        SegmentStore split = new SegmentStore(adjustedSource.size);
+        split.addAll(adjustedSource);
+        boolean[] stop = Arrays.copyOf(shouldStopGenerating, adjustedSource.size);
+        int[] line = Arrays.copyOf(pieceLine, adjustedSource.size);
+        adjustedSource.clear();
+        for (int p = 0; p < order.length; p++){
+            int k = order[p];
+            adjustedSource.add(split.x0(k), split.y0(k), split.x1(k), split.y1(k));
+            pieceLine[p] = line[k];
+            shouldStopGenerating[p] = stop[k];
+        }
+        shuffled = true;
+        updateActiveSources();
+        rebuilt();
+    }
+
+    /** Length the source lines were last split into pieces of. */
+    public float getSplitLength() {
+        return splitLength;
+    }
+
+    /** Stops piece i of adjustedSource generating, returning whether it was still going. */
+    public boolean stopSource(int i) {
+        if (shouldStopGenerating[i]) return false;
+        shouldStopGenerating[i] = true;
+        shouldStopTotal++;
+        activeSources.remove(i);
+        return true;
+    }
+
+    /**
+     * Picks a piece of adjustedSource that is still generating, with longer pieces picked more often so starts
+     * spread evenly along the lines. u goes from 0 (inclusive) to 1 (exclusive). Returns -1 when none is left.
+     */
+    public int pickSource(double u) {
+        return activeSources.pick(u);
+    }
+
+    /** Number of pieces of adjustedSource still generating, not counting any of zero length. */
+    public int activeSourceCount() {
+        return activeSources.count();
+    }
+
+    // weighs each piece still going by its length
+    private void updateActiveSources() {
+        if (pieceWeights.length < adjustedSource.size) pieceWeights = new float[adjustedSource.size];
+        for (int p = 0; p < adjustedSource.size; p++)
+            pieceWeights[p] = pieceWeight(p);
+        activeSources.set(pieceWeights, adjustedSource.size);
+    }
+
+    private float pieceWeight(int p) {
+        return shouldStopGenerating[p] ? 0 : (float)Math.sqrt(adjustedSource.len2(p));
+    }
+
+    // splits source line i onto the end of adjustedSource, keeping the sampler and grid up to date
+    private void addPieces(int i) {
+        int first = adjustedSource.size;
+        split(i);
+        for (int p = first; p < adjustedSource.size; p++){
+            activeSources.add(pieceWeight(p));
+            if (pieceGrid != null) pieceGrid.insert(p, adjustedSource.x0(p), adjustedSource.y0(p), adjustedSource.x1(p), adjustedSource.y1(p));
+        }
+        changed(source.x0(i), source.y0(i), source.x1(i), source.y1(i));
+    }
+
+    // moves the last piece into piece p's place
+    private void removePiece(int p) {
+        int last = adjustedSource.size - 1;
+        if (pieceGrid != null) pieceGrid.remove(p, adjustedSource.x0(p), adjustedSource.y0(p), adjustedSource.x1(p), adjustedSource.y1(p));
+        if (shouldStopGenerating[p]) shouldStopTotal--;
+        if (p != last) {
+            if (pieceGrid != null) {
+                pieceGrid.remove(last, adjustedSource.x0(last), adjustedSource.y0(last), adjustedSource.x1(last), adjustedSource.y1(last));
+                pieceGrid.insert(p, adjustedSource.x0(last), adjustedSource.y0(last), adjustedSource.x1(last), adjustedSource.y1(last));
+            }
+            shouldStopGenerating[p] = shouldStopGenerating[last];
+            pieceLine[p] = pieceLine[last];
+            activeSources.setWeight(p, pieceWeight(last));
+            shuffled = true;
+        }
+        moveLast(adjustedSource, p);
+        activeSources.pop();
+    }
+
+    // puts the pieces of source line i, which runs from (x0, y0) to (x1, y1), in pieces
+    private void findPieces(int i, float x0, float y0, float x1, float y1) {
+        pieces.clear();
+        if (pieceGrid != null) {
+            pieceGrid.query(x0, y0, x1, y1, pieces);
+            for (int k = pieces.size - 1; k >= 0; k--)
+                if (pieceLine[pieces.get(k)] != i) pieces.removeIndex(k);
+        } else {
+            for (int p = 0; p < adjustedSource.size; p++)
+                if (pieceLine[p] == i) pieces.add(p);
+        }
+    }
+
+    // catches up with lines changed directly, so edits carry on from there
+    private void sync() {
+        if (indexedVersion != linesVersion || splitSource.size != source.size) updateAdjustedSourceLines();
+    }
+
+    private void edited() {
+        linesVersion++;
+        indexedVersion = linesVersion;
+    }
+
+    private void rebuilt() {
+        linesVersion++;
+        rebuildVersion++;
+        if (sourceGrid != null) fillGrids();
+        indexedVersion = linesVersion;
+    }
+
+    private void changed(float x0, float y0, float x1, float y1) {
+        changedX0 = Math.min(changedX0, Math.min(x0, x1));
+        changedY0 = Math.min(changedY0, Math.min(y0, y1));
+        changedX1 = Math.max(changedX1, Math.max(x0, x1));
+        changedY1 = Math.max(changedY1, Math.max(y0, y1));
+    }
+
+    private void fillGrids() {
+        fillGrid(sourceGrid, source);
+        fillGrid(pieceGrid, adjustedSource);
+        fillGrid(destGrid, dest);
+        fillGrid(excludeGrid, exclude);
+    }
+
+    private static void fillGrid(SegmentGrid grid, SegmentStore segments) {
+        grid.clear();
+        for (int i = 0; i < segments.size; i++)
+            grid.insert(i, segments.x0(i), segments.y0(i), segments.x1(i), segments.y1(i));
+    }
+
+    private SegmentGrid grid(SegmentStore layer) {
+        if (layer == source) return sourceGrid;
+        if (layer == dest) return destGrid;
+        if (layer == exclude) return excludeGrid;
+        throw new IllegalArgumentException("Not one of the guide line layers");
+    }
+
+    private static int nearestIndex(SegmentStore layer, float x, float y) {
+        float dist = Float.MAX_VALUE;
+        int closest = -1;
+        for (int i = 0; i < layer.size; i++){
+            float d = SegmentGrid.distanceSegmentPoint(layer.x0(i), layer.y0(i), layer.x1(i), layer.y1(i), x, y);
+            if (d < dist) {
+                dist = d;
+                closest = i;
+            }
+        }
+        return closest;
+    }
+
+    private static void moveLast(SegmentStore segments, int i) {
+        int last = segments.size - 1;
+        if (i != last) {
+            System.arraycopy(segments.coords, last * 4, segments.coords, i * 4, 4);
+            segments.parent[i] = segments.parent[last];
+        }
+        segments.size--;
+    }
+
+    private void ensurePieceCapacity(int size) {
+        if (pieceLine.length < size) pieceLine = Arrays.copyOf(pieceLine, Math.max(size, pieceLine.length * 2));
+        if (shouldStopGenerating.length < size) shouldStopGenerating = Arrays.copyOf(shouldStopGenerating, Math.max(size, shouldStopGenerating.length * 2));
+    }
+
+    private float targetLength() {
+        if (sourceSegmentLength > 0) return sourceSegmentLength;
+        //find smallest length
+        float smallestLen2 = 1000000000;
+        for (int i = 0; i < source.size; i++)
+            smallestLen2 = Math.min(smallestLen2, source.len2(i));
+        //at least a unit, so a line drawn with a single click doesn't split the others into millions
+        return Math.max((float)Math.sqrt(smallestLen2)/3f, 1);
+    }
+
+    // splits source line i onto the end of adjustedSource, its pieces not stopped
+    private void split(int i) {
+        e.set(source.x1(i), source.y1(i));
+        float len = (float)Math.sqrt(source.len2(i));
+        int segments = MathUtils.round(len / splitLength);
+        //a line shorter than half a piece is still one
+        if (segments == 0 && len > 0) segments = 1;
+        ensurePieceCapacity(adjustedSource.size + segments);
+        for (int seg = 0; seg < segments; seg++){
+            float a = 1f/segments;
+            float alpha = a * seg;
+            float endAlpha = a * (seg + 1);
+
+            st.set(source.x0(i), source.y0(i)).lerp(e, alpha);
+            en.set(source.x0(i), source.y0(i)).lerp(e, endAlpha);
+
+            int p = adjustedSource.add(st.x, st.y, en.x, en.y);
+            pieceLine[p] = i;
+            shouldStopGenerating[p] = false;
+        }
+    }
+
+    private static boolean sameLine(SegmentStore a, int i, SegmentStore b, int k) {
+        return a.x0(i) == b.x0(k) && a.y0(i) == b.y0(k) && a.x1(i) == b.x1(k) && a.y1(i) == b.y1(k);
+    }
+}
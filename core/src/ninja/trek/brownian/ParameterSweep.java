@@ -0,0 +1,133 @@
+package ninja.trek.brownian;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Grows a tree for every combination of a set of generator settings, each on its own generator, so configurations
+ * can be compared side by side. Each setting takes a list of values; the guide lines are copied once when the sweep
+ * is made and only read after that, so they can be changed while it runs.
+ */
+public class ParameterSweep {
+	public boolean[] nearest = {false}, randomStart = {false}, leap = {false}, launch = {false};
+	public float[] angle = {45}, lineLengthMin = {15}, lineLengthMax = {30};
+	public int[] lines = {1000}, childLimit = {1000};
+	public long[] seed = {1};
+	/** Called from the worker threads as each run ends, for example to write it out and drop its tree. */
+	public Listener listener;
+
+	private final int width, height;
+	private final GuideLines input = new GuideLines();
+
+	public ParameterSweep(int width, int height, GuideLines lines) {
+		this.width = width;
+		this.height = height;
+		input.source.addAll(lines.source);
+		input.dest.addAll(lines.dest);
+		input.exclude.addAll(lines.exclude);
+		input.sourceSegmentLength = lines.sourceSegmentLength;
+	}
+
+	public int size() {
+		return nearest.length * randomStart.length * leap.length * launch.length * angle.length * lineLengthMin.length
+			* lineLengthMax.length * lines.length * childLimit.length * seed.length;
+	}
+
+	/** The settings of combination i, from 0 to size, counting through the seeds first. */
+	public Run run(int i) {
+		Run run = new Run();
+		run.index = i;
+		run.seed = seed[i % seed.length];
+		i /= seed.length;
+		run.lines = lines[i % lines.length];
+		i /= lines.length;
+		run.lineLengthMax = lineLengthMax[i % lineLengthMax.length];
+		i /= lineLengthMax.length;
+		run.lineLengthMin = lineLengthMin[i % lineLengthMin.length];
+		i /= lineLengthMin.length;
+		run.angle = angle[i % angle.length];
+		i /= angle.length;
+		run.childLimit = childLimit[i % childLimit.length];
+		i /= childLimit.length;
+		run.launch = launch[i % launch.length];
+		i /= launch.length;
+		run.leap = leap[i % leap.length];
+		i /= leap.length;
+		run.randomStart = randomStart[i % randomStart.length];
+		i /= randomStart.length;
+		run.nearest = nearest[i % nearest.length];
+		return run;
+	}
+
+	/** Grows every combination, threads at a time, returning them in order once all are done. */
+	public List<Run> runAll(int threads) {
+		List<Run> runs = new ArrayList<Run>();
+		for (int i = 0; i < size(); i++) runs.add(run(i));
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "sweep");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			for (Future<Run> future : executor.invokeAll(runs)) future.get();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+		return runs;
+	}
+
+	public interface Listener {
+		void done(Run run);
+	}
+
+	/** One combination of settings, and once grown, its tree and how it went. */
+	public class Run implements Callable<Run> {
+		public int index;
+		public boolean nearest, randomStart, leap, launch;
+		public float angle, lineLengthMin, lineLengthMax;
+		public int lines, childLimit;
+		public long seed;
+
+		/** The grown tree, until a listener drops it. */
+		public SegmentStore tree;
+		public GenerationStats stats;
+		public int segments, maxDistance, maxDepth, maxStrahler;
+
+		@Override
+		public Run call() {
+			GuideLines guides = new GuideLines();
+			guides.source.addAll(input.source);
+			guides.dest.addAll(input.dest);
+			guides.exclude.addAll(input.exclude);
+			guides.sourceSegmentLength = input.sourceSegmentLength;
+			guides.makeAdjustedSourceLines();
+			TreeGenerator generator = new TreeGenerator(width, height, guides);
+			generator.setLeaping(leap);
+			generator.setLaunching(launch);
+			generator.createTree(nearest, lines, angle, childLimit, randomStart, lineLengthMin, lineLengthMax, seed);
+			generator.generate();
+			tree = generator.tree;
+			stats = generator.stats;
+			segments = tree.size;
+			TreeTopology topology = generator.getTopology();
+			maxDistance = topology.getMaxDistance();
+			maxDepth = topology.getMaxDepth();
+			maxStrahler = topology.getMaxStrahler();
+			if (listener != null) listener.done(this);
+			return this;
+		}
+	}
+}
@@ -1,45 +1,165 @@
 package ninja.trek.brownian;
-import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.files.FileHandle;
-import com.badlogic.gdx.math.Vector2;
-import com.badlogic.gdx.utils.Array;
 
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.List;
+import java.util.Arrays;
 
+/**
+ * Writes a tree as a single SVG path, streaming it out as it goes. Segments that continue exactly into their
+ * parent are joined into one polyline, so most points are written once instead of twice.
+ */
 public class SVGExporter {
-    public static void exportToSVG(Array<Vector2> startPoints, Array<Vector2> endPoints, FileHandle file) {
+    public static final int DEFAULT_PRECISION = 2;
+    private static final int BUFFER_SIZE = 1 << 16;
 
-        Writer writer =  file.writer(false);
-        Gdx.app.log("exporter", " file: " + file.path());
-        // SVG Header
-        try {
-            writer.write("<?xml version=\"1.0\" standalone=\"no\"?>\n");
-            writer.write("<!DOCTYPE svg PUBLIC \"-//W3C//DTD SVG 1.1//EN\" \"http://www.w3.org/Graphics/SVG/1.1/DTD/svg11.dtd\">\n");
-            writer.write("<svg width=\"800\" height=\"600\" version=\"1.1\" xmlns=\"http://www.w3.org/2000/svg\">\n");
-            // Build Path Data
-            StringBuilder pathData = new StringBuilder();
-            for (int i = 0; i < startPoints.size; i++) {
-                Vector2 start = startPoints.get(i);
-                Vector2 end = endPoints.get(i);
-                Gdx.app.log("exporter", " append: " +start.x + start.y + end.x + end.y);
-                pathData.append(String.format("M%f,%fL%f,%f ", start.x, start.y, end.x, end.y));
-            }
-
-            // Single Path Element
-            writer.write(String.format("<path d=\"%s\" stroke=\"black\" fill=\"none\" />\n", pathData.toString()));
+    public static void exportToSVG(SegmentStore segments, int width, int height, FileHandle file) {
+        exportToSVG(segments, width, height, DEFAULT_PRECISION, file);
+    }
 
-            // SVG Footer
-            writer.write("</svg>\n");
+    /** precision is the number of decimals written per coordinate. */
+    public static void exportToSVG(SegmentStore segments, int width, int height, int precision, FileHandle file) {
+        Writer writer = file.writer(false, "UTF-8");
+        try {
+            write(segments, width, height, precision, writer);
             writer.close();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+    }
+
+    public static void write(SegmentStore segments, int width, int height, int precision, Writer writer) throws IOException {
+        Output out = new Output(writer, precision);
+        // SVG Header
+        out.append("<?xml version=\"1.0\" standalone=\"no\"?>\n");
+        out.append("<!DOCTYPE svg PUBLIC \"-//W3C//DTD SVG 1.1//EN\" \"http://www.w3.org/Graphics/SVG/1.1/DTD/svg11.dtd\">\n");
+        out.append("<svg width=\"").append(width).append("\" height=\"").append(height)
+                .append("\" viewBox=\"0 0 ").append(width).append(' ').append(height)
+                .append("\" version=\"1.1\" xmlns=\"http://www.w3.org/2000/svg\">\n");
+        out.append("<path stroke=\"black\" fill=\"none\" d=\"");
+
+        int size = segments.size;
+        //child[p] is the segment whose end is exactly p's start, the first one if there are several
+        int[] child = new int[size];
+        boolean[] continues = new boolean[size];
+        Arrays.fill(child, -1);
+        for (int i = 0; i < size; i++) {
+            int p = segments.parent(i);
+            if (p < 0 || p >= size || child[p] != -1) continue;
+            if (segments.x1(i) == segments.x0(p) && segments.y1(i) == segments.y0(p)) {
+                child[p] = i;
+                continues[i] = true;
+            }
+        }
+        boolean[] written = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            //start each polyline at a segment nothing continues into
+            if (written[i] || child[i] != -1) continue;
+            writePolyline(segments, i, continues, written, out);
+        }
+        //whatever is left only runs in cycles, which a valid tree never has
+        for (int i = 0; i < size; i++)
+            if (!written[i]) writePolyline(segments, i, continues, written, out);
 
+        // SVG Footer
+        out.append("\"/>\n");
+        out.append("</svg>\n");
+        out.flush();
+    }
 
+    private static void writePolyline(SegmentStore segments, int i, boolean[] continues, boolean[] written, Output out) throws IOException {
+        out.append('M').append(segments.x0(i)).append(' ').append(segments.y0(i)).append('L');
+        while (true) {
+            written[i] = true;
+            out.append(segments.x1(i)).append(' ').append(segments.y1(i));
+            if (!continues[i] || written[segments.parent(i)]) break;
+            i = segments.parent(i);
+            out.append(' ');
+        }
+        out.append('\n');
     }
 
-    // ... (Point class remains the same)
+    /** Character buffer in front of the writer, with a float formatter that does not allocate. */
+    static class Output {
+        private final Writer writer;
+        private final char[] buffer = new char[BUFFER_SIZE];
+        private final int precision;
+        private final long scale;
+        private int size;
+
+        Output(Writer writer, int precision) {
+            this.writer = writer;
+            this.precision = Math.max(0, Math.min(precision, 9));
+            long scale = 1;
+            for (int i = 0; i < this.precision; i++) scale *= 10;
+            this.scale = scale;
+        }
+
+        Output append(char c) throws IOException {
+            if (size == buffer.length) flushBuffer();
+            buffer[size++] = c;
+            return this;
+        }
+
+        Output append(String s) throws IOException {
+            for (int i = 0; i < s.length(); i++) append(s.charAt(i));
+            return this;
+        }
+
+        Output append(long value) throws IOException {
+            if (size + 20 > buffer.length) flushBuffer();
+            if (value < 0) {
+                buffer[size++] = '-';
+                value = -value;
+            }
+            int start = size;
+            do {
+                buffer[size++] = (char)('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+            reverse(start, size - 1);
+            return this;
+        }
+
+        /** Rounds to the precision and drops trailing zeros, so 1.50 is written as 1.5 and 2.00 as 2. */
+        Output append(float value) throws IOException {
+            if (Float.isNaN(value) || Float.isInfinite(value)) return append(String.valueOf(value));
+            long scaled = Math.round(Math.abs((double)value) * scale);
+            if (value < 0 && scaled != 0) append('-');
+            append(scaled / scale);
+            long fraction = scaled % scale;
+            if (fraction == 0) return this;
+            int digits = precision;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                digits--;
+            }
+            if (size + digits + 1 > buffer.length) flushBuffer();
+            buffer[size++] = '.';
+            for (int i = size + digits - 1; i >= size; i--) {
+                buffer[i] = (char)('0' + fraction % 10);
+                fraction /= 10;
+            }
+            size += digits;
+            return this;
+        }
+
+        void flush() throws IOException {
+            flushBuffer();
+            writer.flush();
+        }
+
+        private void flushBuffer() throws IOException {
+            writer.write(buffer, 0, size);
+            size = 0;
+        }
+
+        private void reverse(int i, int j) {
+            while (i < j) {
+                char c = buffer[i];
+                buffer[i++] = buffer[j];
+                buffer[j--] = c;
+            }
+        }
+    }
 }
@@ -0,0 +1,244 @@
+package ninja.trek.brownian;
+
+import com.badlogic.gdx.math.Intersector;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.IntArray;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the canvas holding segment indices. A segment is stored in every cell it passes through,
+ * so any two segments that intersect share at least one cell. Cells outside the canvas are clamped to the border.
+ */
+public class SegmentGrid {
+	private static final float PAD = 0.01f;
+	private final float cellSize;
+	private final int cols, rows;
+	private final IntArray[] cells;
+	private final Query query = new Query();
+	private int size;
+	private int indexLimit;
+
+	public SegmentGrid(float width, float height, float cellSize) {
+		this.cellSize = cellSize;
+		cols = Math.max(1, MathUtils.ceil(width / cellSize));
+		rows = Math.max(1, MathUtils.ceil(height / cellSize));
+		cells = new IntArray[cols * rows];
+	}
+
+	public void clear() {
+		for (int i = 0; i < cells.length; i++)
+			if (cells[i] != null) cells[i].clear();
+		size = 0;
+		indexLimit = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void insert(int index, float x0, float y0, float x1, float y1) {
+		indexLimit = Math.max(indexLimit, index + 1);
+		size++;
+		int rowMin = row(Math.min(y0, y1) - PAD), rowMax = row(Math.max(y0, y1) + PAD);
+		for (int r = rowMin; r <= rowMax; r++) {
+			int colMin = colMin(r, x0, y0, x1, y1), colMax = colMax(r, x0, y0, x1, y1);
+			for (int c = colMin; c <= colMax; c++) {
+				IntArray cell = cells[r * cols + c];
+				if (cell == null) cells[r * cols + c] = cell = new IntArray(8);
+				cell.add(index);
+			}
+		}
+	}
+
+	/** Removes a segment inserted with exactly these coordinates. */
+	public void remove(int index, float x0, float y0, float x1, float y1) {
+		size--;
+		int rowMin = row(Math.min(y0, y1) - PAD), rowMax = row(Math.max(y0, y1) + PAD);
+		for (int r = rowMin; r <= rowMax; r++) {
+			int colMin = colMin(r, x0, y0, x1, y1), colMax = colMax(r, x0, y0, x1, y1);
+			for (int c = colMin; c <= colMax; c++) {
+				IntArray cell = cells[r * cols + c];
+				if (cell != null) cell.removeValue(index);
+			}
+		}
+	}
+
+	/** Adds every segment sharing a cell with the given segment to out, each index once. */
+	public void query(float x0, float y0, float x1, float y1, IntArray out) {
+		query(x0, y0, x1, y1, out, query);
+	}
+
+	/** As {@link #query(float, float, float, float, IntArray)}, with caller owned scratch so threads can share the grid. */
+	public void query(float x0, float y0, float x1, float y1, IntArray out, Query query) {
+		if (size == 0) return;
+		int[] stamps = query.begin(indexLimit);
+		int stamp = query.stamp;
+		int rowMin = row(Math.min(y0, y1) - PAD), rowMax = row(Math.max(y0, y1) + PAD);
+		for (int r = rowMin; r <= rowMax; r++) {
+			int colMin = colMin(r, x0, y0, x1, y1), colMax = colMax(r, x0, y0, x1, y1);
+			for (int c = colMin; c <= colMax; c++) {
+				IntArray cell = cells[r * cols + c];
+				if (cell == null) continue;
+				for (int k = 0; k < cell.size; k++) {
+					int index = cell.items[k];
+					if (stamps[index] == stamp) continue;
+					stamps[index] = stamp;
+					out.add(index);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the closest point to (x, y) on the stored segments by searching rings of cells outwards, writing it to
+	 * out. Returns its distance, or Float.MAX_VALUE with out untouched when the grid is empty. Equal distances
+	 * resolve to the lowest index.
+	 */
+	public float nearest(float x, float y, SegmentStore segments, Vector2 out) {
+		return nearest(x, y, segments, out, query);
+	}
+
+	public float nearest(float x, float y, SegmentStore segments, Vector2 out, Query query) {
+		return nearest(x, y, segments, out, query, Float.MAX_VALUE);
+	}
+
+	/**
+	 * As {@link #nearest(float, float, SegmentStore, Vector2)}, but stops searching once every cell left is further
+	 * than maxDist, so results beyond maxDist may not be the nearest and Float.MAX_VALUE means nothing within it.
+	 */
+	public float nearest(float x, float y, SegmentStore segments, Vector2 out, Query query, float maxDist) {
+		int closest = nearestIndex(x, y, segments, query, maxDist);
+		if (closest != -1) Intersector.nearestSegmentPoint(segments.x0(closest), segments.y0(closest), segments.x1(closest), segments.y1(closest), x, y, out);
+		return query.dist;
+	}
+
+	/**
+	 * As {@link #nearest(float, float, SegmentStore, Vector2, Query, float)}, but returns the index of the closest
+	 * segment found, or -1 when there is none within maxDist.
+	 */
+	public int nearestIndex(float x, float y, SegmentStore segments, Query query, float maxDist) {
+		float dist = Float.MAX_VALUE;
+		query.dist = dist;
+		if (size == 0) return -1;
+		int[] stamps = query.begin(indexLimit);
+		int stamp = query.stamp;
+		int cx = col(x), cy = row(y), closest = -1;
+		//how far the point lies outside its (clamped) cell
+		float margin = Math.max(0, Math.max(Math.max(cx * cellSize - x, x - (cx + 1) * cellSize), Math.max(cy * cellSize - y, y - (cy + 1) * cellSize)));
+		int maxRing = Math.max(Math.max(cx, cols - 1 - cx), Math.max(cy, rows - 1 - cy));
+		for (int ring = 0; ring <= maxRing; ring++) {
+			for (int r = cy - ring; r <= cy + ring; r++) {
+				if (r < 0 || r >= rows) continue;
+				int step = (r == cy - ring || r == cy + ring) ? 1 : ring * 2;
+				for (int c = cx - ring; c <= cx + ring; c += Math.max(step, 1)) {
+					if (c < 0 || c >= cols) continue;
+					IntArray cell = cells[r * cols + c];
+					if (cell == null) continue;
+					for (int k = 0; k < cell.size; k++) {
+						int index = cell.items[k];
+						if (stamps[index] == stamp) continue;
+						stamps[index] = stamp;
+						float d = distanceSegmentPoint(segments.x0(index), segments.y0(index), segments.x1(index), segments.y1(index), x, y);
+						if (d < dist || (d == dist && index < closest)) {
+							dist = d;
+							closest = index;
+						}
+					}
+				}
+			}
+			//everything in the next ring is at least this far away
+			if (dist < ring * cellSize - margin || maxDist < ring * cellSize - margin) break;
+		}
+		query.dist = dist;
+		return closest;
+	}
+
+	// same arithmetic as Intersector.distanceSegmentPoint, which is not thread safe as it uses a shared Vector2
+	static float distanceSegmentPoint(float x0, float y0, float x1, float y1, float pointX, float pointY) {
+		float xDiff = x1 - x0, yDiff = y1 - y0;
+		float length2 = xDiff * xDiff + yDiff * yDiff;
+		float nearestX = x0, nearestY = y0;
+		if (length2 != 0) {
+			float t = ((pointX - x0) * (x1 - x0) + (pointY - y0) * (y1 - y0)) / length2;
+			if (t >= 1) {
+				nearestX = x1;
+				nearestY = y1;
+			} else if (t > 0) {
+				nearestX = x0 + t * (x1 - x0);
+				nearestY = y0 + t * (y1 - y0);
+			}
+		}
+		float dx = pointX - nearestX, dy = pointY - nearestY;
+		return (float)Math.sqrt(dx * dx + dy * dy);
+	}
+
+	/**
+	 * Where segment 1-2 crosses segment 3-4, as a fraction of the way along 1-2, or -1 when they don't cross at or
+	 * before maxT. The same arithmetic as Intersector.intersectSegments, whose point is at x1 + (x2 - x1) * t, but
+	 * without the point, and rejecting segments with disjoint bounds or crossing too late before doing all of it.
+	 */
+	static float intersectSegments(float x1, float y1, float x2, float y2, float x3, float y3, float x4, float y4, float maxT) {
+		if (Math.max(x1, x2) < Math.min(x3, x4) || Math.min(x1, x2) > Math.max(x3, x4)
+			|| Math.max(y1, y2) < Math.min(y3, y4) || Math.min(y1, y2) > Math.max(y3, y4)) return -1;
+		float d = (y4 - y3) * (x2 - x1) - (x4 - x3) * (y2 - y1);
+		if (d == 0) return -1;
+		float yd = y1 - y3, xd = x1 - x3;
+		float ua = ((x4 - x3) * yd - (y4 - y3) * xd) / d;
+		if (ua < 0 || ua > 1 || ua > maxT) return -1;
+		float ub = ((x2 - x1) * yd - (y2 - y1) * xd) / d;
+		if (ub < 0 || ub > 1) return -1;
+		return ua;
+	}
+
+	/** Marks which segments a query has already visited. Not thread safe, each thread needs its own. */
+	public static class Query {
+		private int[] stamps = new int[64];
+		private int stamp;
+		// distance to what the last nearest search found
+		private float dist;
+
+		int[] begin(int indexLimit) {
+			if (indexLimit > stamps.length) stamps = new int[Math.max(indexLimit, stamps.length * 2)];
+			if (++stamp == Integer.MAX_VALUE) {
+				Arrays.fill(stamps, 0);
+				stamp = 1;
+			}
+			return stamps;
+		}
+	}
+
+	private int row(float y) {
+		return MathUtils.clamp((int)Math.floor(y / cellSize), 0, rows - 1);
+	}
+
+	private int col(float x) {
+		return MathUtils.clamp((int)Math.floor(x / cellSize), 0, cols - 1);
+	}
+
+	// x extent of the segment inside row r, padded so touching segments still share a cell
+	private int colMin(int r, float x0, float y0, float x1, float y1) {
+		if (y0 == y1) return col(Math.min(x0, x1) - PAD);
+		return col(Math.min(xAt(bandBottom(r), x0, y0, x1, y1), xAt(bandTop(r), x0, y0, x1, y1)) - PAD);
+	}
+
+	private int colMax(int r, float x0, float y0, float x1, float y1) {
+		if (y0 == y1) return col(Math.max(x0, x1) + PAD);
+		return col(Math.max(xAt(bandBottom(r), x0, y0, x1, y1), xAt(bandTop(r), x0, y0, x1, y1)) + PAD);
+	}
+
+	// border rows also hold everything beyond the canvas
+	private float bandBottom(int r) {
+		return r == 0 ? -Float.MAX_VALUE : r * cellSize - PAD;
+	}
+
+	private float bandTop(int r) {
+		return r == rows - 1 ? Float.MAX_VALUE : (r + 1) * cellSize + PAD;
+	}
+
+	private float xAt(float y, float x0, float y0, float x1, float y1) {
+		float t = MathUtils.clamp((y - y0) / (y1 - y0), 0, 1);
+		return x0 + (x1 - x0) * t;
+	}
+}
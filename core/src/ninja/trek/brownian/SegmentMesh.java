@@ -0,0 +1,152 @@
+package ninja.trek.brownian;
+
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Mesh;
+import com.badlogic.gdx.graphics.VertexAttribute;
+import com.badlogic.gdx.graphics.VertexAttributes;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+
+/**
+ * Coloured line segments kept on the GPU between frames. Segments live in fixed size Mesh chunks, since a Mesh
+ * uploads its whole buffer when changed: appending or changing segments only re-uploads the part of their chunks
+ * that changed, and drawing unchanged segments uploads nothing.
+ * <p>
+ * Segments with a positive value are shaded from {@link #near} to {@link #far} by value / {@link #maxValue} instead
+ * of their colour, so changing maxValue recolours them without touching the vertices.
+ */
+public class SegmentMesh implements Disposable {
+	private static final int CHUNK_SEGMENTS = 16384;
+	// x, y, packed colour and value per vertex
+	private static final int VERTEX_FLOATS = 4, SEGMENT_FLOATS = VERTEX_FLOATS * 2;
+	private static final String VALUE_ATTRIBUTE = "a_value";
+
+	private static final String VERTEX_SHADER = "attribute vec4 " + ShaderProgram.POSITION_ATTRIBUTE + ";\n"
+		+ "attribute vec4 " + ShaderProgram.COLOR_ATTRIBUTE + ";\n"
+		+ "attribute float " + VALUE_ATTRIBUTE + ";\n"
+		+ "uniform mat4 u_projModelView;\n"
+		+ "uniform float u_maxValue;\n"
+		+ "uniform vec4 u_near;\n"
+		+ "uniform vec4 u_far;\n"
+		+ "varying vec4 v_col;\n"
+		+ "void main() {\n"
+		+ "   gl_Position = u_projModelView * " + ShaderProgram.POSITION_ATTRIBUTE + ";\n"
+		+ "   if (" + VALUE_ATTRIBUTE + " > 0.0) v_col = mix(u_near, u_far, clamp(" + VALUE_ATTRIBUTE + " / u_maxValue, 0.0, 1.0));\n"
+		+ "   else {\n"
+		+ "      v_col = " + ShaderProgram.COLOR_ATTRIBUTE + ";\n"
+		+ "      v_col.a *= 255.0 / 254.0;\n"
+		+ "   }\n"
+		+ "}\n";
+	private static final String FRAGMENT_SHADER = "#ifdef GL_ES\n"
+		+ "precision mediump float;\n"
+		+ "#endif\n"
+		+ "varying vec4 v_col;\n"
+		+ "void main() {\n"
+		+ "   gl_FragColor = v_col;\n"
+		+ "}\n";
+
+	/** Colours of segments with values near 0 and at maxValue or above. */
+	public final Color near = new Color(Color.RED), far = new Color(Color.GREEN);
+	public float maxValue = 1;
+
+	private final ShaderProgram shader = new ShaderProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+	private final Array<Chunk> chunks = new Array<Chunk>();
+	private int size;
+
+	public SegmentMesh() {
+		if (!shader.isCompiled()) throw new GdxRuntimeException("Couldn't compile segment shader: " + shader.getLog());
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/** Removes every segment, keeping the chunks for reuse. */
+	public void clear() {
+		for (Chunk chunk : chunks) {
+			chunk.size = 0;
+			chunk.clean();
+		}
+		size = 0;
+	}
+
+	public void add(float x0, float y0, float x1, float y1, float color) {
+		add(x0, y0, x1, y1, color, 0);
+	}
+
+	public void add(float x0, float y0, float x1, float y1, float color, float value) {
+		int c = size / CHUNK_SEGMENTS;
+		if (c == chunks.size) chunks.add(new Chunk());
+		chunks.get(c).size++;
+		set(size++, x0, y0, x1, y1, color, value);
+	}
+
+	/** Replaces segment i, which must be below {@link #size()}. */
+	public void set(int i, float x0, float y0, float x1, float y1, float color, float value) {
+		Chunk chunk = chunks.get(i / CHUNK_SEGMENTS);
+		int s = i % CHUNK_SEGMENTS;
+		float[] vertices = chunk.vertices;
+		int o = s * SEGMENT_FLOATS;
+		vertices[o] = x0;
+		vertices[o + 1] = y0;
+		vertices[o + 2] = color;
+		vertices[o + 3] = value;
+		vertices[o + 4] = x1;
+		vertices[o + 5] = y1;
+		vertices[o + 6] = color;
+		vertices[o + 7] = value;
+		chunk.dirtyFrom = Math.min(chunk.dirtyFrom, s);
+		chunk.dirtyTo = Math.max(chunk.dirtyTo, s + 1);
+	}
+
+	public void draw(Matrix4 projection) {
+		if (size == 0) return;
+		shader.bind();
+		shader.setUniformMatrix("u_projModelView", projection);
+		shader.setUniformf("u_maxValue", Math.max(maxValue, 1));
+		shader.setUniformf("u_near", near);
+		shader.setUniformf("u_far", far);
+		for (Chunk chunk : chunks) {
+			if (chunk.size == 0) break;
+			if (chunk.dirtyFrom < chunk.dirtyTo) {
+				int o = chunk.dirtyFrom * SEGMENT_FLOATS;
+				chunk.mesh.updateVertices(o, chunk.vertices, o, (chunk.dirtyTo - chunk.dirtyFrom) * SEGMENT_FLOATS);
+				chunk.clean();
+			}
+			chunk.mesh.render(shader, GL20.GL_LINES, 0, chunk.size * 2);
+		}
+	}
+
+	@Override
+	public void dispose() {
+		for (Chunk chunk : chunks) chunk.mesh.dispose();
+		chunks.clear();
+		shader.dispose();
+	}
+
+	private static class Chunk {
+		final float[] vertices = new float[CHUNK_SEGMENTS * SEGMENT_FLOATS];
+		final Mesh mesh = new Mesh(false, CHUNK_SEGMENTS * 2, 0, new VertexAttributes(
+			new VertexAttribute(VertexAttributes.Usage.Position, 2, ShaderProgram.POSITION_ATTRIBUTE),
+			VertexAttribute.ColorPacked(),
+			new VertexAttribute(VertexAttributes.Usage.Generic, 1, VALUE_ATTRIBUTE)));
+		int size;
+		// segments to upload before the next draw
+		int dirtyFrom, dirtyTo;
+
+		Chunk() {
+			//fixes the buffer's length, later updates only overwrite it
+			mesh.setVertices(vertices);
+			clean();
+		}
+
+		void clean() {
+			dirtyFrom = CHUNK_SEGMENTS;
+			dirtyTo = 0;
+		}
+	}
+}
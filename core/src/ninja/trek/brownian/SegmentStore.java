@@ -0,0 +1,104 @@
+package ninja.trek.brownian;
+
+/**
+ * Packed line segments: x0, y0, x1, y1 per segment in one float array with the parent index alongside. Grows
+ * by doubling, so adding segments does not allocate per segment.
+ */
+public class SegmentStore {
+	public float[] coords;
+	public int[] parent;
+	public int size;
+
+	public SegmentStore() {
+		this(16);
+	}
+
+	public SegmentStore(int capacity) {
+		capacity = Math.max(capacity, 1);
+		coords = new float[capacity * 4];
+		parent = new int[capacity];
+	}
+
+	public int add(float x0, float y0, float x1, float y1) {
+		return add(x0, y0, x1, y1, -1);
+	}
+
+	/** Returns the index of the new segment. */
+	public int add(float x0, float y0, float x1, float y1, int parent) {
+		if (size == this.parent.length) ensureCapacity(size * 2);
+		int o = size * 4;
+		coords[o] = x0;
+		coords[o + 1] = y0;
+		coords[o + 2] = x1;
+		coords[o + 3] = y1;
+		this.parent[size] = parent;
+		return size++;
+	}
+
+	public void addAll(SegmentStore other) {
+		ensureCapacity(size + other.size);
+		System.arraycopy(other.coords, 0, coords, size * 4, other.size * 4);
+		System.arraycopy(other.parent, 0, parent, size, other.size);
+		size += other.size;
+	}
+
+	public void ensureCapacity(int capacity) {
+		if (capacity <= parent.length) return;
+		float[] newCoords = new float[capacity * 4];
+		System.arraycopy(coords, 0, newCoords, 0, size * 4);
+		coords = newCoords;
+		int[] newParent = new int[capacity];
+		System.arraycopy(parent, 0, newParent, 0, size);
+		parent = newParent;
+	}
+
+	public void removeIndex(int index) {
+		if (index >= size) throw new IndexOutOfBoundsException("index can't be >= size: " + index + " >= " + size);
+		size--;
+		System.arraycopy(coords, (index + 1) * 4, coords, index * 4, (size - index) * 4);
+		System.arraycopy(parent, index + 1, parent, index, size - index);
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	public float x0(int i) {
+		return coords[i * 4];
+	}
+
+	public float y0(int i) {
+		return coords[i * 4 + 1];
+	}
+
+	public float x1(int i) {
+		return coords[i * 4 + 2];
+	}
+
+	public float y1(int i) {
+		return coords[i * 4 + 3];
+	}
+
+	public int parent(int i) {
+		return parent[i];
+	}
+
+	public void setParent(int i, int parent) {
+		this.parent[i] = parent;
+	}
+
+	public void setStart(int i, float x, float y) {
+		coords[i * 4] = x;
+		coords[i * 4 + 1] = y;
+	}
+
+	public void setEnd(int i, float x, float y) {
+		coords[i * 4 + 2] = x;
+		coords[i * 4 + 3] = y;
+	}
+
+	public float len2(int i) {
+		float dx = coords[i * 4 + 2] - coords[i * 4], dy = coords[i * 4 + 3] - coords[i * 4 + 1];
+		return dx * dx + dy * dy;
+	}
+}
@@ -1,6 +1,7 @@
 package ninja.trek.brownian;
 
 import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.scenes.scene2d.Actor;
 import com.badlogic.gdx.scenes.scene2d.InputEvent;
 import com.badlogic.gdx.scenes.scene2d.ui.CheckBox;
@@ -33,6 +34,24 @@ public class Settings extends Table {
         final CheckBox rand = new CheckBox("Random Start Point", skin);
         add(rand).left().colspan(2).row();
 
+        final CheckBox parallel = new CheckBox("Parallel Walkers", skin);
+        add(parallel).left().colspan(2).row();
+
+        final CheckBox leap = new CheckBox("Leap Through Empty Space", skin);
+        add(leap).left().colspan(2).row();
+
+        final CheckBox launch = new CheckBox("Random Start Near Tree", skin);
+        add(launch).left().colspan(2).row();
+
+        final CheckBox stats = new CheckBox("Show Stats", skin);
+        stats.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, Actor actor) {
+                parent.showStats = stats.isChecked();
+            }
+        });
+        add(stats).left().colspan(2).row();
+
 
 
         final Slider lineCount = new Slider(1, 10000, 1, false, skin);
@@ -62,16 +81,17 @@ public class Settings extends Table {
         add(angleL).left();
         add(angle).left().row();
 
-        final Label childL = new Label("Child Limit: ", skin);
-        final TextField childLimit = new TextField("1000", skin);
-        childLimit.setTextFieldFilter(new TextField.TextFieldFilter() {
+        TextField.TextFieldFilter digits = new TextField.TextFieldFilter() {
             @Override
             public boolean acceptChar(TextField textField, char c) {
                 for (int i = 0; i < 10; i++)
                     if (c == ((char)i + '0')) return true;
                 return false;
             }
-        });
+        };
+        final Label childL = new Label("Child Limit: ", skin);
+        final TextField childLimit = new TextField("1000", skin);
+        childLimit.setTextFieldFilter(digits);
         childLimit.addListener(new ChangeListener() {
             @Override
             public void changed(ChangeEvent event, Actor actor) {
@@ -82,6 +102,21 @@ public class Settings extends Table {
         add(childL).left();
         add(childLimit).left().row();
 
+        final Label seedL = new Label("Seed: ", skin);
+        final TextField seed = new TextField("1", skin);
+        seed.setTextFieldFilter(digits);
+        add(seedL).left();
+        add(seed).left().row();
+
+        //empty splits source lines into thirds of the shortest one
+        final Label pieceL = new Label("Source Piece: ", skin);
+        final TextField piece = new TextField("", skin);
+        piece.setTextFieldFilter(digits);
+        //longer than any canvas, and short enough that parsing it can't overflow
+        piece.setMaxLength(6);
+        add(pieceL).left();
+        add(piece).left().row();
+
         final Label lineMinL = new Label("Line Min 15", skin);
         final Slider lineMin = new Slider(1, 50, 1, false, skin);
         lineMin.addListener(new ChangeListener() {
@@ -106,6 +141,14 @@ public class Settings extends Table {
         add(lineMaxL);
         add(lineMax).left().row();
 
+        //how many seeds, from the one above, the Sweep button grows side by side
+        final Label sweepL = new Label("Sweep Seeds: ", skin);
+        final TextField sweepSeeds = new TextField("4", skin);
+        sweepSeeds.setTextFieldFilter(digits);
+        sweepSeeds.setMaxLength(4);
+        add(sweepL).left();
+        add(sweepSeeds).left().row();
+
 
 
 
@@ -114,9 +157,42 @@ public class Settings extends Table {
             @Override
             public void clicked(InputEvent event, float x, float y) {
                 super.clicked(event, x, y);
-                parent.createTree( nearest.isChecked(), (int)lineCount.getValue(), angle.getValue(), Integer.parseInt(childLimit.getText()), rand.isChecked(), lineMin.getValue(), lineMax.getValue());
+                long seedValue = parseSeed(seed);
+                if (seedValue < 0) return;
+                parent.setParallel(parallel.isChecked());
+                parent.setLeaping(leap.isChecked());
+                parent.setLaunching(launch.isChecked());
+                parent.setSourceSegmentLength(piece.getText().length() == 0 ? 0 : Integer.parseInt(piece.getText()));
+                parent.createTree( nearest.isChecked(), (int)lineCount.getValue(), angle.getValue(), Integer.parseInt(childLimit.getText()), rand.isChecked(), lineMin.getValue(), lineMax.getValue(), seedValue);
             }
         });
         add(go);
+
+        TextButton sweep = new TextButton(" Sweep ", skin);
+        sweep.addListener(new ClickListener(){
+            @Override
+            public void clicked(InputEvent event, float x, float y) {
+                super.clicked(event, x, y);
+                long seedValue = parseSeed(seed);
+                if (seedValue < 0) return;
+                //the sweep copies the guide lines, so they need the piece length first
+                parent.setSourceSegmentLength(piece.getText().length() == 0 ? 0 : Integer.parseInt(piece.getText()));
+                int seeds = sweepSeeds.getText().length() == 0 ? 1 : Integer.parseInt(sweepSeeds.getText());
+                parent.sweep(nearest.isChecked(), (int)lineCount.getValue(), angle.getValue(), Integer.parseInt(childLimit.getText()), rand.isChecked(), lineMin.getValue(), lineMax.getValue(), leap.isChecked(), launch.isChecked(), seedValue, seeds);
+            }
+        });
+        add(sweep).left();
+    }
+
+    //an empty seed picks a new one each time, logged so the run can be repeated, and kept positive
+    //so the field takes it back in; -1 if it doesn't parse
+    private static long parseSeed(TextField seed) {
+        if (seed.getText().length() == 0) return MathUtils.random.nextLong() >>> 1;
+        try {
+            return Long.parseLong(seed.getText());
+        } catch (NumberFormatException e) {
+            Gdx.app.log("settings", "seed too long: " + seed.getText());
+            return -1;
+        }
     }
 }
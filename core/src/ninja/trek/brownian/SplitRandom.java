@@ -0,0 +1,100 @@
+package ninja.trek.brownian;
+
+/**
+ * SplitMix64 generator, the algorithm behind java.util.SplittableRandom. Fast, with a state of two longs, and new
+ * independent streams can be split off deterministically, so each walker can have its own. The random methods
+ * mirror MathUtils.random.
+ */
+public class SplitRandom {
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+	private long seed, gamma;
+
+	public SplitRandom() {
+		this(0);
+	}
+
+	public SplitRandom(long seed) {
+		setSeed(seed);
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+		gamma = GOLDEN_GAMMA;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public long getGamma() {
+		return gamma;
+	}
+
+	/** Restores a state read from {@link #getSeed()} and {@link #getGamma()}. */
+	public void setState(long seed, long gamma) {
+		this.seed = seed;
+		this.gamma = gamma;
+	}
+
+	/** Starts into on a new stream, independent of this one and of any other split. */
+	public void split(SplitRandom into) {
+		into.seed = nextLong();
+		into.gamma = mixGamma(seed += gamma);
+	}
+
+	public long nextLong() {
+		return mix64(seed += gamma);
+	}
+
+	/** Returns a value from 0 (inclusive) to bound (exclusive). */
+	public int nextInt(int bound) {
+		return (int)(((nextLong() >>> 32) * bound) >>> 32);
+	}
+
+	/** Returns a value from 0 (inclusive) to 1 (exclusive). */
+	public float nextFloat() {
+		return (nextLong() >>> 40) * 0x1.0p-24f;
+	}
+
+	/** Returns a value from 0 (inclusive) to 1 (exclusive). */
+	public double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/** Returns a value from 0 to range, both inclusive. */
+	public int random(int range) {
+		return nextInt(range + 1);
+	}
+
+	/** Returns a value from 0 (inclusive) to range (exclusive). */
+	public float random(float range) {
+		return nextFloat() * range;
+	}
+
+	/** Returns a value from start (inclusive) to end (exclusive). */
+	public float random(float start, float end) {
+		return start + nextFloat() * (end - start);
+	}
+
+	/** Returns a normally distributed value with mean 0 and standard deviation 1. */
+	public float nextGaussian() {
+		//Box-Muller, keeping one of the pair so every call takes the same two draws
+		float u = 1 - nextFloat(), v = nextFloat();
+		return (float)(Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * v));
+	}
+
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	private static long mixGamma(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		z = (z ^ (z >>> 33)) | 1L;
+		//avoid gammas with too few bit transitions, as SplittableRandom does
+		if (Long.bitCount(z ^ (z >>> 1)) < 24) z ^= 0xaaaaaaaaaaaaaaaaL;
+		return z;
+	}
+}
@@ -0,0 +1,73 @@
+package ninja.trek.brownian;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.PixmapIO;
+
+import java.util.List;
+
+/**
+ * Writes a {@link ParameterSweep}'s runs to a directory: run-N.svg and a small run-N.png thumbnail per run, then
+ * results.csv and an index.html table of the thumbnails and results. Thumbnails go through Pixmap, so off the app
+ * the gdx natives have to be loaded first.
+ */
+public class SweepReport {
+	/** Longer side of the thumbnails, in pixels. */
+	public static final int THUMBNAIL_SIZE = 160;
+
+	private static final String SETTINGS_HEADER = "run,nearest,randomStart,leap,launch,angle,lineLengthMin,lineLengthMax,targetLines,childLimit,seed,segments,maxDistance,maxDepth,maxStrahler";
+
+	/** Writes the run's tree and thumbnail, then drops the tree. Safe to call from the sweep's threads. */
+	public static void writeRun(ParameterSweep.Run run, int width, int height, FileHandle dir) {
+		SVGExporter.exportToSVG(run.tree, width, height, 1, dir.child("run-" + run.index + ".svg"));
+		writeThumbnail(run.tree, width, height, dir.child("run-" + run.index + ".png"));
+		run.tree = null;
+	}
+
+	// draws the tree scaled down to THUMBNAIL_SIZE, black on white like the SVG
+	static void writeThumbnail(SegmentStore tree, int width, int height, FileHandle file) {
+		float scale = (float)THUMBNAIL_SIZE / Math.max(1, Math.max(width, height));
+		Pixmap pixmap = new Pixmap(Math.max(1, Math.round(width * scale)), Math.max(1, Math.round(height * scale)), Pixmap.Format.RGB888);
+		try {
+			pixmap.setColor(Color.WHITE);
+			pixmap.fill();
+			pixmap.setColor(Color.BLACK);
+			for (int i = 0; i < tree.size; i++)
+				pixmap.drawLine(Math.round(tree.x0(i) * scale), Math.round(tree.y0(i) * scale), Math.round(tree.x1(i) * scale), Math.round(tree.y1(i) * scale));
+			PixmapIO.writePNG(file, pixmap);
+		} finally {
+			pixmap.dispose();
+		}
+	}
+
+	private static String settings(ParameterSweep.Run run) {
+		return run.index + "," + run.nearest + "," + run.randomStart + "," + run.leap + "," + run.launch + "," + run.angle + ","
+			+ run.lineLengthMin + "," + run.lineLengthMax + "," + run.lines + "," + run.childLimit + "," + run.seed + "," + run.segments + ","
+			+ run.maxDistance + "," + run.maxDepth + "," + run.maxStrahler;
+	}
+
+	public static void writeCsv(List<ParameterSweep.Run> runs, FileHandle file) {
+		StringBuilder out = new StringBuilder(SETTINGS_HEADER).append(',').append(GenerationStats.csvHeader()).append('\n');
+		for (ParameterSweep.Run run : runs) out.append(settings(run)).append(',').append(run.stats.toCsv()).append('\n');
+		file.writeString(out.toString(), false);
+	}
+
+	public static void writeHtml(List<ParameterSweep.Run> runs, FileHandle file) {
+		StringBuilder out = new StringBuilder();
+		out.append("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>Sweep</title><style>\n")
+			.append("body { font-family: sans-serif; font-size: 12px; }\n")
+			.append("td, th { border-bottom: 1px solid #ccc; padding: 2px 6px; text-align: right; }\n")
+			.append("img { border: 1px solid #ccc; }\n")
+			.append("</style></head><body>\n<table>\n<tr><th></th>");
+		for (String column : (SETTINGS_HEADER + "," + GenerationStats.csvHeader()).split(",")) out.append("<th>").append(column).append("</th>");
+		out.append("</tr>\n");
+		for (ParameterSweep.Run run : runs) {
+			out.append("<tr><td><a href=\"run-").append(run.index).append(".svg\"><img src=\"run-").append(run.index).append(".png\"></a></td>");
+			for (String cell : (settings(run) + "," + run.stats.toCsv()).split(",")) out.append("<td>").append(cell).append("</td>");
+			out.append("</tr>\n");
+		}
+		out.append("</table>\n</body></html>\n");
+		file.writeString(out.toString(), false);
+	}
+}
@@ -0,0 +1,157 @@
+package ninja.trek.brownian;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.IntArray;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Binary tree file. After a header of magic, version, width and height come the tree, its thickness and the
+ * source, exclude and dest lines, each as a count followed by packed little endian arrays, so loading is a few bulk
+ * copies. Since version 2 the generator's job follows, if it has one, so a file doubles as a checkpoint the job
+ * can be resumed from; version 3 adds the order of its source pieces, which erasing lines can change. Whole files
+ * go through a {@link Storage}, which platforms can replace with a faster one.
+ */
+public class TreeFile {
+	public static final int MAGIC = 0x42545245; //BTRE
+	public static final int VERSION = 3;
+
+	public static void save(TreeGenerator generator, FileHandle file, Storage storage) {
+		ByteBuffer buffer = storage.allocate(byteSize(generator));
+		write(generator, buffer);
+		((Buffer)buffer).flip();
+		storage.write(buffer, file);
+	}
+
+	/**
+	 * Saves a tree without a generator, so without its thickness, which is worked out again on loading, or a job.
+	 * Nothing as large as the canvas is allocated, so it suits trees too large for one generator.
+	 */
+	public static void save(SegmentStore tree, GuideLines lines, int width, int height, FileHandle file, Storage storage) {
+		ByteBuffer buffer = storage.allocate(4 * 4 + segmentsSize(tree) + 4 + linesSize(lines) + 4);
+		write(width, height, tree, null, lines, buffer);
+		buffer.putInt(0);
+		((Buffer)buffer).flip();
+		storage.write(buffer, file);
+	}
+
+	/** Replaces the generator's tree and guide lines, and its canvas size, with the file's. */
+	public static void load(FileHandle file, TreeGenerator generator, Storage storage) {
+		ByteBuffer buffer = storage.read(file);
+		if (buffer.remaining() < 8 || buffer.order(ByteOrder.LITTLE_ENDIAN).getInt(buffer.position()) != MAGIC)
+			throw new RuntimeException("Not a tree file: " + file);
+		read(buffer, generator);
+	}
+
+	public static int byteSize(TreeGenerator generator) {
+		return 4 * 4 + segmentsSize(generator.tree) + 4 + generator.thickness.size * 4 + linesSize(generator.getLines())
+			+ 4 + (generator.hasJob() ? generator.jobByteSize() : 0);
+	}
+
+	public static void write(TreeGenerator generator, ByteBuffer buffer) {
+		write(generator.getWidth(), generator.getHeight(), generator.tree, generator.thickness, generator.getLines(), buffer);
+		buffer.putInt(generator.hasJob() ? 1 : 0);
+		if (generator.hasJob()) generator.writeJob(buffer);
+	}
+
+	// everything up to the job; a null thickness is written as none
+	private static void write(int width, int height, SegmentStore tree, IntArray thickness, GuideLines lines, ByteBuffer buffer) {
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(width);
+		buffer.putInt(height);
+		writeSegments(tree, buffer);
+		int thicknessSize = thickness == null ? 0 : thickness.size;
+		buffer.putInt(thicknessSize);
+		if (thicknessSize > 0) buffer.asIntBuffer().put(thickness.items, 0, thicknessSize);
+		skip(buffer, thicknessSize * 4);
+		writeSegments(lines.source, buffer);
+		writeSegments(lines.exclude, buffer);
+		writeSegments(lines.dest, buffer);
+	}
+
+	public static void read(ByteBuffer buffer, TreeGenerator generator) {
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		if (buffer.getInt() != MAGIC) throw new RuntimeException("Not a tree file");
+		int version = buffer.getInt();
+		if (version > VERSION) throw new RuntimeException("Tree file version " + version + " is newer than " + VERSION);
+		int width = buffer.getInt(), height = buffer.getInt();
+		generator.reset(width, height);
+		readSegments(buffer, generator.tree);
+		IntArray thickness = generator.thickness;
+		int thicknessSize = buffer.getInt();
+		thickness.clear();
+		thickness.ensureCapacity(thicknessSize);
+		buffer.asIntBuffer().get(thickness.items, 0, thicknessSize);
+		thickness.size = thicknessSize;
+		skip(buffer, thicknessSize * 4);
+		GuideLines lines = generator.getLines();
+		readSegments(buffer, lines.source);
+		readSegments(buffer, lines.exclude);
+		readSegments(buffer, lines.dest);
+		if (version >= 2 && buffer.getInt() != 0) generator.readJob(buffer, version);
+		else lines.makeAdjustedSourceLines();
+		generator.treeChanged();
+		if (thicknessSize != generator.tree.size) generator.postCalculations();
+	}
+
+	private static int linesSize(GuideLines lines) {
+		return segmentsSize(lines.source) + segmentsSize(lines.exclude) + segmentsSize(lines.dest);
+	}
+
+	private static int segmentsSize(SegmentStore segments) {
+		return 4 + segments.size * 5 * 4;
+	}
+
+	private static void writeSegments(SegmentStore segments, ByteBuffer buffer) {
+		buffer.putInt(segments.size);
+		buffer.asFloatBuffer().put(segments.coords, 0, segments.size * 4);
+		skip(buffer, segments.size * 4 * 4);
+		buffer.asIntBuffer().put(segments.parent, 0, segments.size);
+		skip(buffer, segments.size * 4);
+	}
+
+	private static void readSegments(ByteBuffer buffer, SegmentStore segments) {
+		int size = buffer.getInt();
+		segments.clear();
+		segments.ensureCapacity(size);
+		buffer.asFloatBuffer().get(segments.coords, 0, size * 4);
+		skip(buffer, size * 4 * 4);
+		buffer.asIntBuffer().get(segments.parent, 0, size);
+		skip(buffer, size * 4);
+		segments.size = size;
+	}
+
+	// the typed views don't move the byte buffer's position. Through Buffer, since built on JDK 9 and later the
+	// ByteBuffer overloads would be called, which Java 8 and older Android don't have
+	private static void skip(ByteBuffer buffer, int bytes) {
+		((Buffer)buffer).position(buffer.position() + bytes);
+	}
+
+	/** Reads and writes whole files through FileHandle. */
+	public static class Storage {
+		public ByteBuffer allocate(int bytes) {
+			return ByteBuffer.allocate(bytes);
+		}
+
+		/** Writes the buffer's remaining bytes, which come from {@link #allocate(int)}. */
+		public void write(ByteBuffer contents, FileHandle file) {
+			file.writeBytes(contents.array(), contents.arrayOffset() + contents.position(), contents.remaining(), false);
+		}
+
+		public ByteBuffer read(FileHandle file) {
+			return ByteBuffer.wrap(file.readBytes());
+		}
+
+		/**
+		 * Moves from over to, replacing it. This renames where the platform can replace files that way, as Android and
+		 * Linux do, and otherwise falls back to copying, which a crash can leave half done.
+		 */
+		public void replace(FileHandle from, FileHandle to) {
+			from.moveTo(to);
+		}
+	}
+}
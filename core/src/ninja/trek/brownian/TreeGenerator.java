@@ -0,0 +1,942 @@
+package ninja.trek.brownian;
+
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.TimeUtils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Grows a brownian tree against a set of guide lines. Holds no graphics or application state, so it can run
+ * headless; BrownianTreeGen only drives and draws it.
+ */
+public class TreeGenerator {
+	private static final float GRID_CELL_SIZE = 32;
+	private static final int WALKERS_PER_THREAD = 4;
+	// walkers with at least this many steps of clear space around them leap
+	private static final float LEAP_MIN_STEPS = 4;
+	// walkers give up after 1000 steps, by when they have typically wandered about sqrt(1000) steps away
+	private static final float LEAP_MAX_STEPS = 32;
+	// launched walkers start this many steps out from the bounds of what they can stick to
+	private static final float LAUNCH_STEPS = 2;
+	// and are given up on this many steps out, as far as they would typically wander before giving up anyway
+	private static final float KILL_STEPS = LEAP_MAX_STEPS;
+
+	public final SegmentStore tree = new SegmentStore();
+
+	/** Per segment metrics; thickness is its distance from the source path. */
+	public final TreeTopology topology = new TreeTopology();
+	public final IntArray thickness = topology.distance;
+
+	/** Counters and timings of the current job. */
+	public final GenerationStats stats = new GenerationStats();
+
+	/**
+	 * Held by anything touching the generator or its GuideLines while another thread may be running it. Fair, so a
+	 * thread running it in slices can't take it straight back while others wait.
+	 */
+	public final ReentrantLock lock = new ReentrantLock(true);
+
+	private final GuideLines lines;
+	private Vector2 a  = new Vector2(), b = new Vector2(), v = new Vector2(), intersect = new Vector2(), tmp = new Vector2(), target = new Vector2();
+	int[] collIndex = new int[1];
+	private SegmentGrid treeGrid;
+	private final IntArray sourceCandidates = new IntArray();
+	private final Vector2 sourceEnd = new Vector2();
+	private int guideLinesVersion = -1, guideRebuildVersion = -1;
+	private boolean treeGridValid = true;
+	// whether each segment reaches an adjusted source line
+	private boolean[] touchesSource = new boolean[16];
+	private boolean touchesSourceValid = true;
+	// how many segments have each segment as their parent; full ones are left out of the tree grid
+	private int[] childCount = new int[16];
+	// children the first segments have outside the tree, see setTree(SegmentStore, IntArray)
+	private final IntArray outsideChildren = new IntArray();
+	private final SplitRandom random = new SplitRandom();
+	private final Walker main = new Walker(stats);
+	private final ArrayList<Walker> walkers = new ArrayList<Walker>();
+	private int parallelism = 1;
+	private ExecutorService executor;
+	private int width;
+	private int height;
+	private int maxTries;
+	private int tries;
+	private int createdLines;
+	private int targetLineCount;
+	private int childLimit;
+	private boolean randomStart;
+	private float lineLengthMin;
+	private float lineLengthMax;
+	private boolean nearest;
+	private float angle;
+	private boolean isProcessing;
+	// whether createTree or a checkpoint set up a job that resume can carry on
+	private boolean hasJob;
+	private boolean leaping;
+	private boolean launching;
+	// bounds of the tree and dest lines, empty when x0 > x1
+	private float boundsX0, boundsY0, boundsX1, boundsY1;
+	private boolean boundsValid;
+	// where random starts go and walkers may stick from, the whole canvas unless set
+	private int regionX0, regionY0, regionX1, regionY1;
+
+	public TreeGenerator(int width, int height, GuideLines lines) {
+		this.lines = lines;
+		reset(width, height);
+	}
+
+	public void reset(int width, int height){
+		tree.clear();
+		outsideChildren.clear();
+
+		this.width = width;
+		this.height = height;
+		treeGrid = new SegmentGrid(width, height, GRID_CELL_SIZE);
+		guideLinesVersion = -1;
+		guideRebuildVersion = -1;
+		treeGridValid = true;
+		boundsValid = false;
+		isProcessing = false;
+		hasJob = false;
+		setRegion(0, 0, width, height);
+
+		postCalculations();
+	}
+
+	/**
+	 * Number of threads walking at once. With more than one, each processTree call walks a batch of walkers on a
+	 * worker pool instead of a single one.
+	 */
+	public void setParallelism(int threads) {
+		threads = Math.max(1, threads);
+		if (threads == parallelism) return;
+		dispose();
+		parallelism = threads;
+		walkers.clear();
+		if (threads == 1) return;
+		for (int i = 0; i < threads * WALKERS_PER_THREAD; i++) walkers.add(new Walker(new GenerationStats()));
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "walker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Whether walkers far from everything cross the clear space around them in one move, drawn to match the steps
+	 * it replaces, instead of stepping through it. Much faster on sparse canvases; the trees grow alike, though not
+	 * the same as without leaping for the same seed.
+	 */
+	public void setLeaping(boolean leaping) {
+		this.leaping = leaping;
+	}
+
+	public boolean isLeaping() {
+		return leaping;
+	}
+
+	/**
+	 * Whether random start walkers start just outside the bounds of the tree and dest lines instead of anywhere on
+	 * the canvas, and are given up on once they wander far from them. Saves most of the walking on large sparse
+	 * canvases, though the tree tends to grow outwards more, as walkers can no longer start among its branches.
+	 */
+	public void setLaunching(boolean launching) {
+		this.launching = launching;
+	}
+
+	public boolean isLaunching() {
+		return launching;
+	}
+
+	/**
+	 * Limits growth to part of the canvas: random starts are drawn inside it, and walkers only stick from steps that
+	 * start inside it. The rest of the canvas is a margin walkers can wander through, with whatever is in it to
+	 * collide with, as when growing one tile of a larger canvas. reset sets it back to the whole canvas.
+	 */
+	public void setRegion(int x0, int y0, int x1, int y1) {
+		regionX0 = x0;
+		regionY0 = y0;
+		regionX1 = x1;
+		regionY1 = y1;
+	}
+
+	private boolean inRegion(Vector2 a) {
+		return a.x >= regionX0 && a.x <= regionX1 && a.y >= regionY0 && a.y <= regionY1;
+	}
+
+	/** Replaces the tree with a copy of segments, stopping any running job. */
+	public void setTree(SegmentStore segments) {
+		tree.clear();
+		tree.addAll(segments);
+		outsideChildren.clear();
+		thickness.clear();
+		treeChanged();
+		postCalculations();
+	}
+
+	/**
+	 * Replaces the tree as setTree does, for a tree that is part of a larger one: childCounts has how many children
+	 * each segment has there, which the child limit then goes by.
+	 */
+	public void setTree(SegmentStore segments, IntArray childCounts) {
+		setTree(segments);
+		outsideChildren.addAll(childCounts.items, 0, tree.size);
+		for (int i = 0; i < tree.size; i++)
+			if (tree.parent(i) != -1) outsideChildren.incr(tree.parent(i), -1);
+	}
+
+	/**
+	 * Call after filling tree and thickness directly, for example when loading them with their guide lines. The
+	 * thickness is kept if it has an entry per segment. Stops any running job; the tree's grid is rebuilt once
+	 * generation needs it.
+	 */
+	public void treeChanged() {
+		isProcessing = false;
+		treeGridValid = false;
+		boundsValid = false;
+		updateGuideGrids();
+		touchesSourceValid = false;
+		topology.distanceChanged(tree.size);
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public void dispose() {
+		if (executor != null) executor.shutdown();
+		executor = null;
+	}
+
+	/** Runs the current createTree job to completion. */
+	public TreeGenerator generate() {
+		while (isProcessing) update(1);
+		return this;
+	}
+
+	/** Runs up to the given number of walkers, finishing the job once it is done. */
+	public void update(int iterations) {
+		long start = TimeUtils.nanoTime();
+		for (int i = 0; i < iterations && isProcessing; i++)
+			if (processTree()) finish();
+		stats.generationNanos += TimeUtils.nanoTime() - start;
+	}
+
+	/** Runs walkers until the job is done or the time budget runs out, whatever the machine's speed. */
+	public void runFor(float millis) {
+		long start = TimeUtils.nanoTime(), end = start + (long)(millis * 1000000), now = start;
+		while (isProcessing) {
+			if (processTree()) finish();
+			now = TimeUtils.nanoTime();
+			if (now >= end) break;
+		}
+		stats.generationNanos += now - start;
+	}
+
+	/** Stops the current job and recomputes thickness. The job can be carried on with {@link #resume()}. */
+	public void finish() {
+		isProcessing = false;
+		postCalculations();
+	}
+
+	/**
+	 * Carries on the last job, stopped by finish or restored from a checkpoint, as if it had never stopped: the same
+	 * seed grows the same tree either way. Returns false if there is no job or it has run to its end.
+	 */
+	public boolean resume() {
+		if (!hasJob || tries >= maxTries || createdLines >= targetLineCount) return false;
+		isProcessing = true;
+		return true;
+	}
+
+	public boolean isProcessing() {
+		return isProcessing;
+	}
+
+	public boolean hasJob() {
+		return hasJob;
+	}
+
+	public int getCreatedLines() {
+		return createdLines;
+	}
+
+	public int getTargetLineCount() {
+		return targetLineCount;
+	}
+
+	public float getMaxDistance() {
+		return topology.getMaxDistance();
+	}
+
+	public GuideLines getLines() {
+		return lines;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/** Recomputes thickness and the rest of the topology from scratch. */
+	public void postCalculations() {
+		updateGuideGrids();
+		if (!touchesSourceValid) {
+			touchesSourceValid = true;
+			if (touchesSource.length < tree.size) touchesSource = new boolean[tree.size];
+			for (int i = 0; i < tree.size; i++) touchesSource[i] = collideSource(i);
+		}
+		topology.compute(tree, touchesSource);
+	}
+
+	/** Brings thickness up to date, recomputing it only when the tree changed by more than added leaves. */
+	public void updateThickness() {
+		updateGuideGrids();
+		if (!topology.isDistanceValid()) postCalculations();
+	}
+
+	/** The topology with every metric current. */
+	public TreeTopology getTopology() {
+		updateGuideGrids();
+		if (!topology.isComplete()) postCalculations();
+		return topology;
+	}
+
+	/** The same seed, guide lines and starting tree always grow the same tree, whatever the parallelism timing. */
+	public void createTree(boolean nearest, int targetLineCount, float angle, int childLimit, boolean randomStart, float lineLengthMin, float lineLengthMax, long seed) {
+		random.setSeed(seed);
+		maxTries = targetLineCount * 10;
+		tries = 0;
+		stats.reset();
+		createdLines = 0;
+		this.nearest = nearest;
+		this.angle = angle;
+		this.targetLineCount = targetLineCount;
+		//segments may have filled up or freed up
+		if (childLimit != this.childLimit) treeGridValid = false;
+		this.childLimit = childLimit;
+		this.randomStart = randomStart;
+		this.lineLengthMin = lineLengthMin;
+		this.lineLengthMax = lineLengthMax;
+		this.isProcessing = true;
+		hasJob = true;
+		if(lineLengthMin > lineLengthMax){
+			float tmp = lineLengthMax;
+			lineLengthMax = lineLengthMin;
+			lineLengthMin = tmp;
+		}
+	}
+
+	// bytes writeJob takes
+	int jobByteSize() {
+		return 2 * 8 + 6 * 4 + 4 * 4 + 4 * 4 + 2 * 4 + 8 * 8 + 4 + stoppedSourceCount() * 4
+			+ 4 + (lines.shuffled ? lines.adjustedSource.size * 4 : 0);
+	}
+
+	private int stoppedSourceCount() {
+		int count = 0;
+		for (int i = 0; i < lines.adjustedSource.size; i++)
+			if (lines.shouldStopGenerating[i]) count++;
+		return count;
+	}
+
+	/**
+	 * Writes what the job needs to carry on: its settings, counters, random state, stopped source pieces and, if
+	 * erasing lines moved them, the order of the pieces.
+	 */
+	void writeJob(ByteBuffer buffer) {
+		buffer.putLong(random.getSeed());
+		buffer.putLong(random.getGamma());
+		buffer.putInt(maxTries);
+		buffer.putInt(tries);
+		buffer.putInt(createdLines);
+		buffer.putInt(targetLineCount);
+		buffer.putInt(childLimit);
+		buffer.putInt(parallelism);
+		buffer.putInt(nearest ? 1 : 0);
+		buffer.putInt(randomStart ? 1 : 0);
+		buffer.putInt(leaping ? 1 : 0);
+		buffer.putInt(launching ? 1 : 0);
+		buffer.putFloat(angle);
+		buffer.putFloat(lineLengthMin);
+		buffer.putFloat(lineLengthMax);
+		buffer.putFloat(lines.sourceSegmentLength);
+		buffer.putInt(stats.lines);
+		buffer.putInt(stats.sourcesStopped);
+		buffer.putLong(stats.tries);
+		buffer.putLong(stats.steps);
+		buffer.putLong(stats.leaps);
+		buffer.putLong(stats.collisionTests);
+		buffer.putLong(stats.outOfBounds);
+		buffer.putLong(stats.excluded);
+		buffer.putLong(stats.generationNanos);
+		buffer.putLong(stats.renderNanos);
+		buffer.putInt(stoppedSourceCount());
+		//numbered as reading splits them, which erasing lines may have shuffled
+		int[] order = lines.splitOrder();
+		for (int i = 0; i < lines.adjustedSource.size; i++)
+			if (lines.shouldStopGenerating[i]) buffer.putInt(order == null ? i : order[i]);
+		//sources are picked by where pieces are, so they go back where they were
+		buffer.putInt(order == null ? 0 : order.length);
+		if (order != null)
+			for (int i = 0; i < order.length; i++) buffer.putInt(order[i]);
+	}
+
+	/**
+	 * Reads what writeJob wrote for a file of the given version, once the guide lines are in, and splits the source
+	 * lines as they were. The job is left stopped.
+	 */
+	void readJob(ByteBuffer buffer, int version) {
+		random.setState(buffer.getLong(), buffer.getLong());
+		maxTries = buffer.getInt();
+		tries = buffer.getInt();
+		createdLines = buffer.getInt();
+		targetLineCount = buffer.getInt();
+		childLimit = buffer.getInt();
+		setParallelism(buffer.getInt());
+		nearest = buffer.getInt() != 0;
+		randomStart = buffer.getInt() != 0;
+		leaping = buffer.getInt() != 0;
+		launching = buffer.getInt() != 0;
+		angle = buffer.getFloat();
+		lineLengthMin = buffer.getFloat();
+		lineLengthMax = buffer.getFloat();
+		lines.sourceSegmentLength = buffer.getFloat();
+		stats.reset();
+		stats.lines = buffer.getInt();
+		stats.sourcesStopped = buffer.getInt();
+		stats.tries = buffer.getLong();
+		stats.steps = buffer.getLong();
+		stats.leaps = buffer.getLong();
+		stats.collisionTests = buffer.getLong();
+		stats.outOfBounds = buffer.getLong();
+		stats.excluded = buffer.getLong();
+		stats.generationNanos = buffer.getLong();
+		stats.renderNanos = buffer.getLong();
+		lines.makeAdjustedSourceLines();
+		int stopped = buffer.getInt();
+		for (int i = 0; i < stopped; i++) lines.stopSource(buffer.getInt());
+		int ordered = version >= 3 ? buffer.getInt() : 0;
+		if (ordered > 0) {
+			int[] order = new int[ordered];
+			for (int i = 0; i < ordered; i++) order[i] = buffer.getInt();
+			lines.arrangePieces(order);
+		}
+		hasJob = true;
+	}
+
+	// single walker entry points, for benchmarks
+	boolean collide(Vector2 a, Vector2 b, Vector2 coll, int[] index) {
+		updateGrids();
+		return main.collide(a, b, coll, index);
+	}
+
+	void setClosestPoint(Vector2 target, Vector2 a) {
+		updateGrids();
+		main.setClosestPoint(target, a);
+	}
+
+	private void updateGrids() {
+		if (!treeGridValid) {
+			treeGridValid = true;
+			if (childCount.length < tree.size) childCount = new int[tree.size];
+			Arrays.fill(childCount, 0, tree.size, 0);
+			System.arraycopy(outsideChildren.items, 0, childCount, 0, Math.min(outsideChildren.size, tree.size));
+			for (int i = 0; i < tree.size; i++)
+				if (tree.parent(i) != -1) childCount[tree.parent(i)]++;
+			treeGrid.clear();
+			for (int i = 0; i < tree.size; i++) insertTreeSegment(i);
+		}
+		updateGuideGrids();
+		if (!boundsValid) {
+			boundsValid = true;
+			boundsX0 = boundsY0 = Float.MAX_VALUE;
+			boundsX1 = boundsY1 = -Float.MAX_VALUE;
+			for (int i = 0; i < tree.size; i++) includeInBounds(tree, i);
+			for (int i = 0; i < lines.dest.size; i++) includeInBounds(lines.dest, i);
+		}
+	}
+
+	private void includeInBounds(SegmentStore segments, int i) {
+		boundsX0 = Math.min(boundsX0, Math.min(segments.x0(i), segments.x1(i)));
+		boundsY0 = Math.min(boundsY0, Math.min(segments.y0(i), segments.y1(i)));
+		boundsX1 = Math.max(boundsX1, Math.max(segments.x0(i), segments.x1(i)));
+		boundsY1 = Math.max(boundsY1, Math.max(segments.y0(i), segments.y1(i)));
+	}
+
+	private boolean isLaunched() {
+		return launching && randomStart && boundsX0 <= boundsX1;
+	}
+
+	// whether a launched walker has wandered too far to be worth following
+	private boolean isLost(Vector2 b) {
+		if (!isLaunched()) return false;
+		float margin = KILL_STEPS * lineLengthMax;
+		return b.x < boundsX0 - margin || b.x > boundsX1 + margin || b.y < boundsY0 - margin || b.y > boundsY1 + margin;
+	}
+
+	// puts a on the launch box, the bounds grown by a margin and cut to the region, leaving out sides on its edge
+	private boolean launch(Vector2 a) {
+		float margin = LAUNCH_STEPS * lineLengthMax;
+		float x0 = boundsX0 - margin, y0 = boundsY0 - margin, x1 = boundsX1 + margin, y1 = boundsY1 + margin;
+		float cx0 = Math.max(x0, regionX0), cy0 = Math.max(y0, regionY0), cx1 = Math.min(x1, regionX1), cy1 = Math.min(y1, regionY1);
+		if (cx0 > cx1 || cy0 > cy1) return false;
+		float bottom = y0 > regionY0 ? cx1 - cx0 : 0, top = y1 < regionY1 ? cx1 - cx0 : 0;
+		float left = x0 > regionX0 ? cy1 - cy0 : 0, right = x1 < regionX1 ? cy1 - cy0 : 0;
+		float total = bottom + top + left + right;
+		if (total <= 0) return false;
+		float r = random.random(total);
+		if ((r -= bottom) < 0) a.set(cx1 + r, cy0);
+		else if ((r -= top) < 0) a.set(cx1 + r, cy1);
+		else if ((r -= left) < 0) a.set(cx0, cy1 + r);
+		else a.set(cx1, cy1 + r - right);
+		return true;
+	}
+
+	private void updateGuideGrids() {
+		lines.index(width, height, GRID_CELL_SIZE);
+		if (guideLinesVersion == lines.linesVersion && guideRebuildVersion == lines.rebuildVersion) return;
+		guideLinesVersion = lines.linesVersion;
+		if (guideRebuildVersion != lines.rebuildVersion) {
+			guideRebuildVersion = lines.rebuildVersion;
+			boundsValid = false;
+			//the source path may have moved
+			touchesSourceValid = false;
+			topology.invalidate();
+		} else {
+			//lines were drawn or erased one at a time, so only segments near them can have changed
+			if (lines.destChanged) boundsValid = false;
+			if (lines.changedX0 <= lines.changedX1) sourceLinesChanged(lines.changedX0, lines.changedY0, lines.changedX1, lines.changedY1);
+		}
+		lines.clearChanges();
+	}
+
+	// rechecks which segments reach the source for those with bounds overlapping the area
+	private void sourceLinesChanged(float x0, float y0, float x1, float y1) {
+		if (!touchesSourceValid) return;
+		//collideSource looks a little past each segment's end
+		x0 -= 1;
+		y0 -= 1;
+		x1 += 1;
+		y1 += 1;
+		boolean changed = false;
+		for (int i = 0; i < tree.size; i++) {
+			if (Math.max(tree.x0(i), tree.x1(i)) < x0 || Math.min(tree.x0(i), tree.x1(i)) > x1
+				|| Math.max(tree.y0(i), tree.y1(i)) < y0 || Math.min(tree.y0(i), tree.y1(i)) > y1) continue;
+			boolean touches = collideSource(i);
+			if (touches != touchesSource[i]) {
+				touchesSource[i] = touches;
+				changed = true;
+			}
+		}
+		if (changed) topology.invalidate();
+	}
+
+	// a childLimit below 1 means no limit
+	private boolean isFull(int i) {
+		return childLimit > 0 && childCount[i] >= childLimit;
+	}
+
+	private void insertTreeSegment(int i) {
+		if (!isFull(i)) treeGrid.insert(i, tree.x0(i), tree.y0(i), tree.x1(i), tree.y1(i));
+	}
+
+	private void removeTreeSegment(int i) {
+		if (!isFull(i)) treeGrid.remove(i, tree.x0(i), tree.y0(i), tree.x1(i), tree.y1(i));
+	}
+
+	private void addChild(int parent) {
+		if (parent == -1) return;
+		if (childLimit > 0 && childCount[parent] + 1 == childLimit) removeTreeSegment(parent);
+		childCount[parent]++;
+	}
+
+	public boolean processTree(){
+		if (parallelism > 1) return processTreeParallel();
+		if (tries++ < maxTries && createdLines < targetLineCount){
+			stats.tries++;
+			updateGrids();
+			if (!randomStart && lines.activeSourceCount() == 0) return true;
+			int sourceIndex = chooseStart(a);
+			float lineLengthDelta = (float)createdLines / targetLineCount;
+			float lineLength = MathUtils.lerp(lineLengthMax, lineLengthMin, lineLengthDelta);
+//			Gdx.app.log("main", "iterating" +lineLength);
+			boolean hasCollided = false;
+			int moveTries = 0;
+			main.leapWait = 0;
+			while (moveTries++ < 1000 && !hasCollided){
+				if (leaping) moveTries += main.leap(a, lineLength, random);
+				stats.steps++;
+				v.set(-lineLength, 0);
+				float targetAngle;
+				if (nearest){
+					main.setClosestPoint(target, a);
+					targetAngle = tmp.set(a).sub(target).angleDeg();
+				}
+				else{
+//					target.set(width/2, height/2);
+					targetAngle = random.random(360f);
+				}
+				v.rotateDeg(random.random(-angle, angle) + targetAngle);
+				b.set(a).add(v);
+//				Gdx.app.log("main", "moved"+ a + "  angle " + targetAngle + " " + target);//tmp.set(a).sub(b).angleDeg());
+				if (b.x <  0 || b.x > width || b.y < 0 || b.y > height || isLost(b)){
+					hasCollided = true;
+					stats.outOfBounds++;
+//					Gdx.app.log("main", "failed oob");
+					continue;
+				}
+				if (main.collide(a, b, intersect, collIndex)){
+					hasCollided= true;
+					if (collIndex[0] == -2) {
+						stats.excluded++;
+						continue;
+					}
+					if (!inRegion(a)) {
+						stats.outOfBounds++;
+						continue;
+					}
+					stick(a, intersect, collIndex[0], moveTries, sourceIndex);
+				}
+				a.set(b);
+			}
+//			if (!hasCollided) Gdx.app.log("main", "failed to collide "+a+collIndex[0]);
+		} else {
+
+
+			return true;
+
+		}
+		return false;
+		//		Gdx.app.log("main", "done " + start.size);
+	}
+
+	/**
+	 * Walks a batch of walkers at once on the worker pool against the tree as it was when the batch started, then
+	 * commits their hits in walker order. Each hit is re-checked against the segments committed before it in the
+	 * same batch, so the result only depends on the random sequence and not on thread timing.
+	 */
+	private boolean processTreeParallel() {
+		if (tries >= maxTries || createdLines >= targetLineCount) return true;
+		updateGrids();
+		if (!randomStart && lines.activeSourceCount() == 0) return true;
+		float lineLengthDelta = (float)createdLines / targetLineCount;
+		float lineLength = MathUtils.lerp(lineLengthMax, lineLengthMin, lineLengthDelta);
+		int count = Math.min(walkers.size(), maxTries - tries);
+		for (int i = 0; i < count; i++) {
+			Walker walker = walkers.get(i);
+			walker.sourceIndex = chooseStart(walker.a);
+			walker.lineLength = lineLength;
+			random.split(walker.random);
+		}
+		tries += count;
+		stats.tries += count;
+		try {
+			for (Future<Walker> future : executor.invokeAll(walkers.subList(0, count))) future.get();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e);
+		}
+		for (int i = 0; i < count; i++) {
+			GenerationStats walks = walkers.get(i).stats;
+			stats.addWalks(walks);
+			walks.reset();
+		}
+		for (int i = 0; i < count && createdLines < targetLineCount; i++) {
+			Walker walker = walkers.get(i);
+			if (!walker.stuck) continue;
+			if (!inRegion(walker.a)) {
+				stats.outOfBounds++;
+				continue;
+			}
+			if (main.collide(walker.a, walker.b, intersect, collIndex) && collIndex[0] != -2)
+				stick(walker.a, intersect, collIndex[0], walker.moveTries, walker.sourceIndex);
+		}
+		return false;
+	}
+
+	// returns the adjusted source line the walker starts on, or -1 for a random start
+	private int chooseStart(Vector2 a) {
+		int sourceIndex = -1;
+		if (randomStart){
+			if (!isLaunched() || !launch(a)) a.set(regionX0 + random.random(regionX1 - regionX0), regionY0 + random.random(regionY1 - regionY0));
+		} else {
+			SegmentStore adjustedSource = lines.adjustedSource;
+			sourceIndex = lines.pickSource(random.nextDouble());
+			a.set(adjustedSource.x0(sourceIndex), adjustedSource.y0(sourceIndex));
+			float alpha = random.random(1f);
+			a.lerp(tmp.set(adjustedSource.x1(sourceIndex), adjustedSource.y1(sourceIndex)), alpha);
+		}
+		return sourceIndex;
+	}
+
+	// adds the segment from a to the hit point, subdividing the segment it hit
+	private void stick(Vector2 a, Vector2 intersect, int hit, int moveTries, int sourceIndex) {
+		if (moveTries <= 1 && !randomStart) {
+//			Gdx.app.log("main", "failed collision at source "+ moveTries);
+			if (sourceIndex != -1 && lines.stopSource(sourceIndex)) stats.sourcesStopped++;
+		}
+		int added = tree.add(a.x, a.y, intersect.x, intersect.y, hit), extra = -1;
+		boolean hitTouchedSource = false;
+		if (childCount.length < tree.size + 1) childCount = Arrays.copyOf(childCount, Math.max(tree.size + 1, childCount.length * 2));
+		childCount[added] = 0;
+		//subdivide parent
+
+		if (hit != -1){
+			if (intersect.dst2(tree.x0(hit), tree.y0(hit)) < 0.1f){//close to start
+				tree.setEnd(added, tree.x0(hit), tree.y0(hit));
+			}else if (intersect.dst2(tree.x1(hit), tree.y1(hit)) < 0.1f){//close to end, connect with parent's parent
+				int grandparent = tree.parent(hit);
+				//a full grandparent leaves it on the parent
+				if (grandparent != -1 && !isFull(grandparent)){
+					tree.setParent(added, grandparent);
+					tree.setEnd(added, tree.x0(grandparent), tree.y0(grandparent));
+				}
+			}
+			else {//subdivide
+				//the parent's grid cells change with its end, so it goes back in afterwards
+				removeTreeSegment(hit);
+				hitTouchedSource = hit < touchesSource.length && touchesSource[hit];
+				extra = tree.add(intersect.x, intersect.y, tree.x1(hit), tree.y1(hit), tree.parent(hit));
+				tree.setEnd(hit, intersect.x, intersect.y);
+				tree.setParent(hit, extra);
+				//extra takes the parent's place under the grandparent, so only extra's own count changes
+				childCount[extra] = 1;
+				insertTreeSegment(hit);
+				insertTreeSegment(extra);
+			}
+
+
+		}
+		insertTreeSegment(added);
+		addChild(tree.parent(added));
+		includeInBounds(tree, added);
+		updateTouchesSource(added);
+		if (extra != -1) {
+			updateTouchesSource(hit);
+			updateTouchesSource(extra);
+			topology.segmentSplit(tree, hit, extra, added, hitTouchedSource, touchesSource);
+		} else topology.leafAdded(tree, added, touchesSource[added]);
+
+
+		createdLines++;
+		stats.lines++;
+	}
+
+	private void updateTouchesSource(int i) {
+		if (i >= touchesSource.length) {
+			boolean[] newTouches = new boolean[Math.max(i + 1, touchesSource.length * 2)];
+			System.arraycopy(touchesSource, 0, newTouches, 0, touchesSource.length);
+			touchesSource = newTouches;
+		}
+		touchesSource[i] = collideSource(i);
+	}
+
+	private boolean collideSource(int i){
+		float ax = tree.x0(i), ay = tree.y0(i), bx = tree.x1(i), by = tree.y1(i);
+		Vector2 v = sourceEnd.set(ax, ay).sub(bx, by).nor().scl(0.1f).add(bx, by);
+		SegmentStore adjustedSource = lines.adjustedSource;
+		sourceCandidates.clear();
+		lines.pieceGrid.query(ax, ay, v.x, v.y, sourceCandidates);
+		for (int c = 0; c < sourceCandidates.size; c++) {
+			int k = sourceCandidates.get(c);
+			if (SegmentGrid.intersectSegments(ax, ay, v.x, v.y, adjustedSource.x0(k), adjustedSource.y0(k), adjustedSource.x1(k), adjustedSource.y1(k), 1) >= 0) return true;
+		}
+		return false;
+	}
+
+	/** Scratch state for one walker, so several can walk the same tree at once. */
+	private class Walker implements Callable<Walker> {
+		final Vector2 a = new Vector2(), b = new Vector2(), v = new Vector2(), intersect = new Vector2(), tmp = new Vector2(), target = new Vector2();
+		final int[] collIndex = new int[1];
+		final IntArray candidates = new IntArray();
+		final SegmentGrid.Query query = new SegmentGrid.Query();
+		final SplitRandom random = new SplitRandom();
+		int sourceIndex;
+		float lineLength;
+		int moveTries;
+		boolean stuck;
+		final GenerationStats stats;
+		// steps before the clear space around the walker can be worth another look
+		int leapWait;
+
+		Walker(GenerationStats stats) {
+			this.stats = stats;
+		}
+
+		// walks from a until it hits something, leaving the last step in a and b
+		@Override
+		public Walker call() {
+			stuck = false;
+			boolean hasCollided = false;
+			moveTries = 0;
+			leapWait = 0;
+			while (moveTries++ < 1000 && !hasCollided){
+				if (leaping) moveTries += leap(a, lineLength, random);
+				stats.steps++;
+				v.set(-lineLength, 0);
+				float targetAngle;
+				if (nearest){
+					setClosestPoint(target, a);
+					targetAngle = tmp.set(a).sub(target).angleDeg();
+				}
+				else{
+					targetAngle = random.random(360f);
+				}
+				v.rotateDeg(random.random(-angle, angle) + targetAngle);
+				b.set(a).add(v);
+				if (b.x <  0 || b.x > width || b.y < 0 || b.y > height || isLost(b)){
+					hasCollided = true;
+					stats.outOfBounds++;
+					continue;
+				}
+				if (collide(a, b, intersect, collIndex)){
+					hasCollided = true;
+					if (collIndex[0] == -2) {
+						stats.excluded++;
+						continue;
+					}
+					stuck = true;
+					break;
+				}
+				a.set(b);
+			}
+			return this;
+		}
+
+		/**
+		 * Moves a across the clear space around it in one go, if there is enough of it, landing where the steps it
+		 * stands in for could have. Returns how many steps that is, on average.
+		 */
+		int leap(Vector2 a, float lineLength, SplitRandom random) {
+			if (leapWait > 0) {
+				leapWait--;
+				return 0;
+			}
+			//a step of margin, so the step taken from where it lands is still the only one that can hit anything
+			float clear = clearance(a, LEAP_MAX_STEPS * lineLength) - lineLength, minClear = LEAP_MIN_STEPS * lineLength;
+			if (clear < minClear) {
+				//the clearance grows by at most a step per step
+				leapWait = (int)((minClear - clear) / lineLength);
+				return 0;
+			}
+			if (!nearest) {
+				//a random walk leaves a circle at a uniformly random point, after (radius / step)^2 steps on average
+				a.add(tmp.set(clear, 0).rotateDeg(random.random(360f)));
+				float radius = clear / lineLength;
+				int steps = (int)(radius * radius);
+				stats.leaps++;
+				stats.steps += steps;
+				return steps;
+			}
+			//each step heads for the closest point turned by up to angle, so far from it their sum is close to normal
+			setClosestPoint(target, a);
+			tmp.set(target).sub(a);
+			if (tmp.isZero()) return 0;
+			tmp.nor();
+			int steps = (int)(clear / lineLength);
+			double spread = Math.abs(angle) * MathUtils.degreesToRadians;
+			double meanCos = 1, meanCos2 = 1;
+			if (spread > 1e-6) {
+				meanCos = Math.sin(spread) / spread;
+				meanCos2 = 0.5 + Math.sin(2 * spread) / (4 * spread);
+			}
+			float along = (float)(steps * meanCos + Math.sqrt(steps * Math.max(0, meanCos2 - meanCos * meanCos)) * random.nextGaussian());
+			float across = (float)(Math.sqrt(steps * (1 - meanCos2)) * random.nextGaussian());
+			v.set(tmp.x * along - tmp.y * across, tmp.y * along + tmp.x * across).scl(lineLength);
+			//the steps can't have gone further than their total length
+			a.add(v.limit(clear));
+			stats.leaps++;
+			stats.steps += steps;
+			return steps;
+		}
+
+		// distance from a to the closest thing a step could hit or the canvas edge a step could leave through, up to max
+		private float clearance(Vector2 a, float max) {
+			float dist = Math.min(max, Math.min(Math.min(a.x, width - a.x), Math.min(a.y, height - a.y)));
+			dist = Math.min(dist, treeGrid.nearest(a.x, a.y, tree, tmp, query, dist));
+			dist = Math.min(dist, lines.destGrid.nearest(a.x, a.y, lines.dest, tmp, query, dist));
+			return Math.min(dist, lines.excludeGrid.nearest(a.x, a.y, lines.exclude, tmp, query, dist));
+		}
+
+		void setClosestPoint(Vector2 target, Vector2 a) {
+			float dist = treeGrid.nearest(a.x, a.y, tree, target, query);
+			if (lines.destGrid.nearest(a.x, a.y, lines.dest, tmp, query) < dist) target.set(tmp);
+		}
+
+		private boolean collide(Vector2 a, Vector2 b, Vector2 coll, int[] index) {
+			//compares how far along the step each hit is, working out the point only for the closest
+			float t = 1;
+			int closest = -1;
+
+			// Check collisions with existing tree segments
+			// ties go to the lowest index so the result matches a linear scan
+			candidates.clear();
+			treeGrid.query(a.x, a.y, b.x, b.y, candidates, query);
+			stats.collisionTests += candidates.size;
+			for (int c = 0; c < candidates.size; c++) {
+				int i = candidates.get(c);
+				float hit = SegmentGrid.intersectSegments(a.x, a.y, b.x, b.y, tree.x0(i), tree.y0(i), tree.x1(i), tree.y1(i), t);
+				if (hit >= 0 && (closest == -1 || hit < t || i < closest)) {
+					t = hit;
+					closest = i;
+				}
+			}
+			boolean hasCollided = closest != -1;
+			if (hasCollided) index[0] = closest;
+
+			// Check collisions with destination lines
+			float destT = collideGuide(lines.destGrid, lines.dest, a, b, hasCollided ? t : 1, !hasCollided);
+			if (destT >= 0) {
+				t = destT;
+				hasCollided = true;
+				index[0] = -1;
+			}
+
+			// Check collisions with exclude lines
+			float excludeT = collideGuide(lines.excludeGrid, lines.exclude, a, b, t, !hasCollided);
+			if (excludeT >= 0) {
+				t = excludeT;
+				hasCollided = true;
+				index[0] = -2;
+			}
+
+			if (hasCollided) coll.set(a.x + (b.x - a.x) * t, a.y + (b.y - a.y) * t);
+			return hasCollided;
+		}
+
+		// returns how far along the step the closest hit is, or -1 without one; only hits before maxT are taken, or at it when inclusive
+		private float collideGuide(SegmentGrid grid, SegmentStore segments, Vector2 a, Vector2 b, float maxT, boolean inclusive) {
+			float t = -1;
+			candidates.clear();
+			grid.query(a.x, a.y, b.x, b.y, candidates, query);
+			stats.collisionTests += candidates.size;
+			for (int c = 0; c < candidates.size; c++) {
+				int i = candidates.get(c);
+				float hit = SegmentGrid.intersectSegments(a.x, a.y, b.x, b.y, segments.x0(i), segments.y0(i), segments.x1(i), segments.y1(i), maxT);
+				if (hit >= 0 && (hit < maxT || inclusive)) {
+					t = maxT = hit;
+					inclusive = false;
+				}
+			}
+			return t;
+		}
+	}
+}
@@ -0,0 +1,364 @@
+package ninja.trek.brownian;
+
+import com.badlogic.gdx.utils.IntArray;
+
+import java.util.Arrays;
+
+/**
+ * Child lists and per segment metrics of a tree, computed in one pass over its parent links: distance from the
+ * source path (the thickness), depth below the root, subtree size and Strahler number. Segments appended as leaves
+ * get their distance straight away, and a split renumbers only the split segment's branch; changes that move the
+ * source path leave the distances stale until the next compute.
+ */
+public class TreeTopology {
+	/** Distance of segments with no path to a source line. */
+	public static final int UNCONNECTED = Integer.MAX_VALUE;
+	// past this many, changed is dropped and the version bumped instead, so everything gets redrawn
+	private static final int MAX_CHANGED = 1 << 16;
+
+	public final IntArray distance = new IntArray();
+	public final IntArray depth = new IntArray();
+	public final IntArray subtreeSize = new IntArray();
+	public final IntArray strahler = new IntArray();
+	/**
+	 * Segments whose distance or ends changed since the version last did, for redrawing; whoever draws them clears it.
+	 * May repeat segments, and list ones appended since.
+	 */
+	public final IntArray changed = new IntArray();
+
+	// children of i are childList[childStart[i]] up to childList[childStart[i + 1]]
+	private int[] childStart = new int[1], childList = new int[0], order = new int[0];
+	// children again as linked lists, which leafAdded and segmentSplit keep up to date for the first linked segments
+	private int[] firstChild = new int[0], nextSibling = new int[0];
+	private int linked;
+	private boolean linksValid;
+	private final IntArray stack = new IntArray(), path = new IntArray();
+	// how many segments are at each distance, so the greatest is known as distances drop
+	private int[] distanceCount = new int[16];
+	private int maxDistance, maxDepth, maxStrahler;
+	private int version;
+	private boolean distanceValid = true, complete = true;
+
+	/** Recomputes everything. touchesSource[i] says whether segment i reaches a source line. */
+	public void compute(SegmentStore tree, boolean[] touchesSource) {
+		int n = tree.size;
+		if (childList.length < n) {
+			childStart = new int[n + 1];
+			childList = new int[n];
+			order = new int[n];
+		}
+		resize(distance, n, UNCONNECTED);
+		resize(depth, n, 0);
+		resize(subtreeSize, n, 1);
+		resize(strahler, n, 1);
+		int[] distance = this.distance.items, depth = this.depth.items, subtreeSize = this.subtreeSize.items, strahler = this.strahler.items;
+
+		//count children, then fill backwards so each list ends up in index order
+		Arrays.fill(childStart, 0, n + 1, 0);
+		for (int i = 0; i < n; i++) {
+			int p = parent(tree, i);
+			if (p != -1) childStart[p]++;
+		}
+		for (int i = 0, end = 0; i <= n; i++) {
+			end += childStart[i];
+			childStart[i] = end;
+		}
+		for (int i = n - 1; i >= 0; i--) {
+			int p = parent(tree, i);
+			if (p != -1) childList[--childStart[p]] = i;
+		}
+
+		//segments reaching the source and everything between them and the root are distance 0
+		for (int i = 0; i < n; i++) {
+			if (!touchesSource[i]) continue;
+			for (int j = i; j != -1 && distance[j] != 0; j = parent(tree, j)) distance[j] = 0;
+		}
+
+		//breadth first from the roots, so parents come before their children
+		int count = 0;
+		for (int i = 0; i < n; i++)
+			if (parent(tree, i) == -1) order[count++] = i;
+		maxDepth = 0;
+		for (int head = 0; head < count; head++) {
+			int i = order[head];
+			for (int k = childStart[i], end = childStart[i + 1]; k < end; k++) {
+				int c = childList[k];
+				depth[c] = depth[i] + 1;
+				if (distance[c] != 0 && distance[i] != UNCONNECTED) distance[c] = distance[i] + 1;
+				order[count++] = c;
+			}
+			maxDepth = Math.max(maxDepth, depth[i]);
+		}
+		//segments never reached sit on a parent cycle, which stick never makes; they keep the defaults
+
+		//then backwards, so children come before their parents
+		maxStrahler = 0;
+		for (int k = count - 1; k >= 0; k--) {
+			int i = order[k];
+			int size = 1, highest = 0, highestCount = 0;
+			for (int c = childStart[i], end = childStart[i + 1]; c < end; c++) {
+				int child = childList[c];
+				size += subtreeSize[child];
+				if (strahler[child] > highest) {
+					highest = strahler[child];
+					highestCount = 1;
+				} else if (strahler[child] == highest) highestCount++;
+			}
+			subtreeSize[i] = size;
+			strahler[i] = highest == 0 ? 1 : highestCount > 1 ? highest + 1 : highest;
+			maxStrahler = Math.max(maxStrahler, strahler[i]);
+		}
+		ensureLinks(n);
+		Arrays.fill(firstChild, 0, n, -1);
+		for (int i = n - 1; i >= 0; i--) {
+			int p = parent(tree, i);
+			nextSibling[i] = p == -1 ? -1 : firstChild[p];
+			if (p != -1) firstChild[p] = i;
+		}
+		linked = n;
+		linksValid = true;
+		countDistances();
+		changed.clear();
+		distanceValid = true;
+		complete = true;
+		version++;
+	}
+
+	/**
+	 * Call for segment i just appended as a leaf of its parent. Sets its distance, and if it reaches the source from
+	 * a branch that didn't, joins the segments between it and the root to the source path and renumbers the branches
+	 * off them.
+	 */
+	public void leafAdded(SegmentStore tree, int i, boolean touchesSource) {
+		complete = false;
+		if (linked != i) linksValid = false;
+		else link(tree, i);
+		if (!distanceValid) return;
+		if (distance.size != i) {
+			distanceValid = false;
+			return;
+		}
+		int p = parent(tree, i);
+		addDistance(p == -1 ? UNCONNECTED : next(distance.get(p)));
+		if (touchesSource) reachSource(tree, i);
+	}
+
+	/**
+	 * Call after segment hit was split in two, the new segment extra taking the half towards hit's old parent and
+	 * hit keeping its children, with the leaf added appended onto hit just before extra. touchedSource is whether hit
+	 * reached a source line before the split. extra takes hit's old distance and hit's branch moves one further out;
+	 * then hit leaves the source path if only extra's half reached it, and any of the three reaching the source joins
+	 * it as in leafAdded.
+	 */
+	public void segmentSplit(SegmentStore tree, int hit, int extra, int added, boolean touchedSource, boolean[] touchesSource) {
+		complete = false;
+		if (!linksValid || linked != added || extra != added + 1 || parent(tree, hit) != extra) {
+			linksValid = false;
+			distanceValid = false;
+			return;
+		}
+		ensureLinks(extra + 1);
+		//extra takes hit's place among its parent's children, with hit its only child
+		int p = parent(tree, extra);
+		firstChild[extra] = hit;
+		nextSibling[extra] = nextSibling[hit];
+		if (p != -1) {
+			if (firstChild[p] == hit) firstChild[p] = extra;
+			else {
+				int s = firstChild[p];
+				while (nextSibling[s] != hit) s = nextSibling[s];
+				nextSibling[s] = extra;
+			}
+		}
+		nextSibling[hit] = -1;
+		boolean valid = distanceValid && distance.size == added;
+		int oldDistance = valid ? distance.get(hit) : 0;
+		if (valid) {
+			addChanged(hit);
+			if (oldDistance != 0 && oldDistance != UNCONNECTED) {
+				setDistance(hit, oldDistance + 1);
+				for (int c = firstChild[hit]; c != -1; c = nextSibling[c]) renumber(tree, c);
+			}
+		}
+		link(tree, added);
+		linked = extra + 1;
+		if (!valid) {
+			distanceValid = false;
+			return;
+		}
+		addDistance(next(distance.get(hit)));
+		addDistance(oldDistance);
+		//hit may have reached the source only through the half now in extra
+		if (touchedSource && !touchesSource[hit]) leaveSource(tree, hit, touchesSource);
+		if (touchesSource[extra]) reachSource(tree, extra);
+		if (touchesSource[hit]) reachSource(tree, hit);
+		if (touchesSource[added]) reachSource(tree, added);
+	}
+
+	/** Call after any change other than appending a leaf. */
+	public void invalidate() {
+		distanceValid = false;
+		complete = false;
+	}
+
+	/** Call after filling distance directly; it is kept if it has an entry for each of the size segments. */
+	public void distanceChanged(int size) {
+		complete = false;
+		linksValid = false;
+		changed.clear();
+		distanceValid = distance.size == size;
+		version++;
+		countDistances();
+	}
+
+	/** Whether distance is current; the other metrics may still be stale. */
+	public boolean isDistanceValid() {
+		return distanceValid;
+	}
+
+	/** Whether every metric is current. */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/** Changes whenever any distance may have changed; smaller changes are listed in {@link #changed} instead. */
+	public int getVersion() {
+		return version;
+	}
+
+	public int getMaxDistance() {
+		return maxDistance;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	public int getMaxStrahler() {
+		return maxStrahler;
+	}
+
+	/** Only valid while {@link #isComplete()}. */
+	public int childCount(int i) {
+		return childStart[i + 1] - childStart[i];
+	}
+
+	/** Only valid while {@link #isComplete()}. */
+	public int child(int i, int k) {
+		return childList[childStart[i] + k];
+	}
+
+	// segment i reaches a source line, so it and the segments between it and the root are on the source path, and
+	// the branches off them are renumbered from there
+	private void reachSource(SegmentStore tree, int i) {
+		if (distance.get(i) == 0) return;
+		if (!linksValid) {
+			distanceValid = false;
+			return;
+		}
+		path.clear();
+		for (int j = i; j != -1 && distance.get(j) != 0; j = parent(tree, j)) {
+			setDistance(j, 0);
+			path.add(j);
+		}
+		for (int k = 0; k < path.size; k++)
+			for (int c = firstChild[path.get(k)]; c != -1; c = nextSibling[c])
+				if (distance.get(c) != 0) renumber(tree, c);
+	}
+
+	// segment i no longer reaches a source line, so it and the segments above it that were on the source path only
+	// through it leave it, and their branches are renumbered from the first one still on it
+	private void leaveSource(SegmentStore tree, int i, boolean[] touchesSource) {
+		int top = -1;
+		for (int j = i; j != -1 && distance.get(j) == 0 && !touchesSource[j]; j = parent(tree, j)) {
+			boolean childOnPath = false;
+			for (int c = firstChild[j]; c != -1 && !childOnPath; c = nextSibling[c]) childOnPath = distance.get(c) == 0;
+			if (childOnPath) break;
+			//marks it off the path for the next one up
+			setDistance(j, UNCONNECTED);
+			top = j;
+		}
+		if (top != -1) renumber(tree, top);
+	}
+
+	// sets the distance of c, whose parent's changed, and of its branch below it
+	private void renumber(SegmentStore tree, int c) {
+		stack.clear();
+		stack.add(c);
+		while (stack.size > 0) {
+			int i = stack.pop();
+			int p = parent(tree, i);
+			setDistance(i, p == -1 ? UNCONNECTED : next(distance.get(p)));
+			for (int k = firstChild[i]; k != -1; k = nextSibling[k]) stack.add(k);
+		}
+	}
+
+	private static int next(int parentDistance) {
+		return parentDistance == UNCONNECTED ? UNCONNECTED : parentDistance + 1;
+	}
+
+	private void addDistance(int d) {
+		distance.add(d);
+		count(d, 1);
+	}
+
+	private void setDistance(int i, int d) {
+		int old = distance.get(i);
+		if (old == d) return;
+		distance.set(i, d);
+		count(old, -1);
+		count(d, 1);
+		addChanged(i);
+	}
+
+	private void count(int d, int change) {
+		if (d == UNCONNECTED) return;
+		if (d >= distanceCount.length) distanceCount = Arrays.copyOf(distanceCount, Math.max(d + 1, distanceCount.length * 2));
+		distanceCount[d] += change;
+		if (change > 0) maxDistance = Math.max(maxDistance, d);
+		else while (maxDistance > 0 && distanceCount[maxDistance] == 0) maxDistance--;
+	}
+
+	private void countDistances() {
+		Arrays.fill(distanceCount, 0);
+		maxDistance = 0;
+		for (int i = 0; i < distance.size; i++) count(distance.get(i), 1);
+	}
+
+	// puts segment i, the next one to link, at the front of its parent's children
+	private void link(SegmentStore tree, int i) {
+		ensureLinks(i + 1);
+		int p = parent(tree, i);
+		firstChild[i] = -1;
+		nextSibling[i] = p == -1 ? -1 : firstChild[p];
+		if (p != -1) firstChild[p] = i;
+		linked = i + 1;
+	}
+
+	private void addChanged(int i) {
+		if (changed.size < MAX_CHANGED) changed.add(i);
+		else {
+			changed.clear();
+			version++;
+		}
+	}
+
+	private void ensureLinks(int size) {
+		if (firstChild.length >= size) return;
+		int capacity = Math.max(size, firstChild.length * 2);
+		firstChild = Arrays.copyOf(firstChild, capacity);
+		nextSibling = Arrays.copyOf(nextSibling, capacity);
+	}
+
+	private static int parent(SegmentStore tree, int i) {
+		int p = tree.parent(i);
+		return p < 0 || p >= tree.size ? -1 : p;
+	}
+
+	private static void resize(IntArray array, int size, int value) {
+		array.clear();
+		array.ensureCapacity(size);
+		Arrays.fill(array.items, 0, size, value);
+		array.size = size;
+	}
+}
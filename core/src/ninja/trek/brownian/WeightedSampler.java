@@ -0,0 +1,112 @@
+package ninja.trek.brownian;
+
+import java.util.Arrays;
+
+/**
+ * Picks indices with probability proportional to their weights, which can be changed one at a time. The weights are
+ * kept in a Fenwick tree, so picking, changing and adding or dropping the last index are O(log n).
+ */
+public class WeightedSampler {
+	private double[] tree = new double[1];
+	private float[] weight = new float[0];
+	private int size, count;
+	private double total;
+
+	/** Starts over with a weight per index, 0 for indices that can't be picked. */
+	public void set(float[] weights, int size) {
+		if (weight.length < size) {
+			weight = new float[size];
+			tree = new double[size + 1];
+		}
+		this.size = size;
+		count = 0;
+		total = 0;
+		System.arraycopy(weights, 0, weight, 0, size);
+		Arrays.fill(tree, 0, size + 1, 0);
+		//each node passes its sum on to its parent, building the tree in one pass
+		for (int i = 1; i <= size; i++) {
+			if (weight[i - 1] > 0) count++;
+			total += weight[i - 1];
+			tree[i] += weight[i - 1];
+			int parent = i + (i & -i);
+			if (parent <= size) tree[parent] += tree[i];
+		}
+	}
+
+	/** Drops index i's weight to zero, returning whether it had any. */
+	public boolean remove(int i) {
+		float w = weight[i];
+		if (w == 0) return false;
+		weight[i] = 0;
+		count--;
+		total -= w;
+		for (int j = i + 1; j <= size; j += j & -j) tree[j] -= w;
+		return true;
+	}
+
+	/** Changes index i's weight, 0 to stop it being picked. */
+	public void setWeight(int i, float w) {
+		float old = weight[i];
+		if (old > 0) count--;
+		if (w > 0) count++;
+		weight[i] = w;
+		double change = (double)w - old;
+		total += change;
+		for (int j = i + 1; j <= size; j += j & -j) tree[j] += change;
+	}
+
+	/** Adds an index with weight w after the others, returning it. */
+	public int add(float w) {
+		if (size == weight.length) {
+			weight = Arrays.copyOf(weight, Math.max(16, size * 2));
+			tree = Arrays.copyOf(tree, weight.length + 1);
+		}
+		int i = ++size;
+		weight[i - 1] = w;
+		if (w > 0) count++;
+		total += w;
+		//the new node sums its own weight and the nodes it covers below it
+		double sum = w;
+		for (int j = i - 1, low = i - (i & -i); j > low; j -= j & -j) sum += tree[j];
+		tree[i] = sum;
+		return i - 1;
+	}
+
+	/** Drops the last index. No node below it covers it, so nothing else changes. */
+	public void pop() {
+		float w = weight[--size];
+		if (w > 0) count--;
+		total -= w;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/** Number of indices with weight left. */
+	public int count() {
+		return count;
+	}
+
+	public double total() {
+		return count == 0 ? 0 : total;
+	}
+
+	/** Returns the index whose share of the total weight covers u, from 0 (inclusive) to 1 (exclusive), or -1 when none is left. */
+	public int pick(double u) {
+		if (count == 0) return -1;
+		double r = u * total;
+		int i = 0;
+		for (int step = Integer.highestOneBit(size); step > 0; step >>= 1) {
+			if (i + step <= size && tree[i + step] <= r) {
+				i += step;
+				r -= tree[i];
+			}
+		}
+		//rounding can leave r past the last weight, or a removed index with a speck of weight
+		if (i < size && weight[i] > 0) return i;
+		for (i = Math.min(i, size - 1); i >= 0; i--)
+			if (weight[i] > 0) return i;
+		return -1;
+	}
+}
@@ -0,0 +1,56 @@
+package ninja.trek.brownian;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TreeTopologyTest {
+	@Test
+	public void subdividingFromSourceKeepsDistancesWithoutRecomputing() {
+		grow(false);
+	}
+
+	@Test
+	public void subdividingFromRandomStartsKeepsDistancesWithoutRecomputing() {
+		grow(true);
+	}
+
+	// grows a frame at a time as the app does, checking each frame's distances against a full compute now and then
+	private void grow(boolean randomStart) {
+		TreeGenerator generator = new TreeGenerator(2048, 2048, lines());
+		generator.createTree(false, 3000, 45, 3, randomStart, 5, 10, 7);
+		int frames = 0, recomputes = 0;
+		while (generator.isProcessing()) {
+			generator.update(20);
+			int version = generator.topology.getVersion();
+			generator.updateThickness();
+			if (generator.topology.getVersion() != version) recomputes++;
+			if (++frames % 50 == 0 || !generator.isProcessing()) {
+				int[] distance = Arrays.copyOf(generator.thickness.items, generator.thickness.size);
+				int maxDistance = generator.topology.getMaxDistance();
+				generator.postCalculations();
+				assertArrayEquals(Arrays.copyOf(generator.thickness.items, generator.thickness.size), distance);
+				assertEquals(generator.topology.getMaxDistance(), maxDistance);
+			}
+		}
+		//splits add a segment without creating a line
+		assertTrue(generator.tree.size > generator.getCreatedLines());
+		assertTrue(recomputes + " of " + frames + " frames recomputed", recomputes * 10 < frames);
+		generator.dispose();
+	}
+
+	private static GuideLines lines() {
+		GuideLines lines = new GuideLines();
+		lines.source.add(100, 100, 1900, 120);
+		lines.source.add(300, 400, 330, 420);
+		lines.dest.add(100, 1900, 1900, 1880);
+		lines.dest.add(500, 300, 520, 700);
+		lines.exclude.add(200, 500, 400, 520);
+		lines.makeAdjustedSourceLines();
+		return lines;
+	}
+}
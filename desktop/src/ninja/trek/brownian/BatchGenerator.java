@@ -0,0 +1,287 @@
+package ninja.trek.brownian;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.JsonReader;
+import com.badlogic.gdx.utils.JsonValue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates trees from a JSON job file without a window, one job per core at a time.
+ *
+ * <pre>
+ * java ninja.trek.brownian.BatchGenerator jobs.json [threads]
+ *
+ * {
+ *   "defaults": { "width": 1024, "height": 1024, "lines": 5000, "format": "svg" },
+ *   "jobs": [
+ *     { "output": "out/tree-{seed}.svg", "seed": 1, "count": 100,
+ *       "source": [[0, 1000, 1024, 1000]], "dest": [[0, 24, 1024, 24]], "exclude": [] }
+ *   ]
+ * }
+ * </pre>
+ *
+ * A job runs count times with seeds seed, seed + 1 and so on; {seed} in output, which defaults to tree-{seed}.svg or
+ * tree-{seed}.tree by format, is replaced by each one. Other
+ * settings, falling back to defaults: nearest, angle, childLimit, randomStart, lineLengthMin, lineLengthMax, leap,
+ * launch, sourceSegmentLength, precision (svg only) and format, which is svg or tree. Paths are relative to the job file. A top level
+ * "stats" path collects each job's {@link GenerationStats}, as a JSON array if it ends in .json and as CSV otherwise.
+ * <p>
+ * With a checkpoint path, which can also hold {seed}, a job writes its progress there every checkpointSeconds
+ * (default 60) and deletes it once done; run again after a crash, it carries on from the checkpoint instead of
+ * starting over.
+ * <p>
+ * source, dest and exclude can also name SVG or CSV files, alone or among the lines, whose lines all go to that layer;
+ * a guides file, or list of them, puts each shape in the layer it names. See {@link GuideImporter}, whose curve
+ * tolerance is the tolerance setting.
+ */
+public class BatchGenerator {
+	public static void main(String[] args) throws InterruptedException {
+		if (args.length < 1) {
+			System.err.println("usage: BatchGenerator jobs.json [threads]");
+			System.exit(1);
+		}
+		File jobFile = new File(args[0]);
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		JsonValue root = new JsonReader().parse(new FileHandle(jobFile));
+		List<Job> jobs = readJobs(root, jobFile);
+		System.out.println("running " + jobs.size() + " jobs on " + threads + " threads");
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		List<Future<Job>> results = executor.invokeAll(jobs);
+		executor.shutdown();
+		long segments = 0;
+		int failed = 0;
+		List<Job> done = new ArrayList<Job>();
+		for (Future<Job> result : results) {
+			try {
+				Job job = result.get();
+				segments += job.segments;
+				done.add(job);
+			} catch (ExecutionException e) {
+				failed++;
+				System.err.println("job failed: " + e.getCause());
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format(Locale.ROOT, "%d jobs (%d failed), %d segments in %.2fs: %.1f jobs/s, %.0f segments/s",
+			jobs.size(), failed, segments, seconds, jobs.size() / seconds, segments / seconds));
+		if (root.has("stats")) writeStats(done, new FileHandle(new File(jobFile.getAbsoluteFile().getParentFile(), root.getString("stats"))));
+		if (failed > 0) System.exit(2);
+	}
+
+	static List<Job> readJobs(JsonValue root, File jobFile) {
+		JsonValue defaults = root.get("defaults");
+		File base = jobFile.getAbsoluteFile().getParentFile();
+		List<Job> jobs = new ArrayList<Job>();
+		for (JsonValue value = root.get("jobs").child; value != null; value = value.next) {
+			Settings settings = new Settings(value, defaults, base);
+			long seed = settings.getLong("seed", 1);
+			int count = settings.getInt("count", 1);
+			for (int i = 0; i < count; i++) {
+				Job job = new Job();
+				job.settings = settings;
+				job.seed = seed + i;
+				job.name = settings.getString("output", "tree-{seed}." + settings.getString("format", "svg")).replace("{seed}", Long.toString(job.seed));
+				job.output = new File(base, job.name);
+				String checkpoint = settings.getString("checkpoint", null);
+				if (checkpoint != null) job.checkpoint = new File(base, checkpoint.replace("{seed}", Long.toString(job.seed)));
+				jobs.add(job);
+			}
+		}
+		return jobs;
+	}
+
+	static void writeStats(List<Job> jobs, FileHandle file) {
+		StringBuilder out = new StringBuilder();
+		boolean json = file.extension().equals("json");
+		if (json) out.append("[\n");
+		else out.append("output,seed,").append(GenerationStats.csvHeader()).append('\n');
+		for (int i = 0; i < jobs.size(); i++) {
+			Job job = jobs.get(i);
+			if (json) {
+				String stats = job.stats.toJson();
+				out.append("  {\"output\": \"").append(job.name).append("\", \"seed\": ").append(job.seed).append(", ")
+					.append(stats.substring(1)).append(i < jobs.size() - 1 ? ",\n" : "\n");
+			} else out.append(job.name).append(',').append(job.seed).append(',').append(job.stats.toCsv()).append('\n');
+		}
+		if (json) out.append("]\n");
+		file.writeString(out.toString(), false);
+	}
+
+	static class Job implements Callable<Job> {
+		// how often a job with a checkpoint looks at whether one is due
+		private static final float CHECKPOINT_CHECK_MILLIS = 100;
+
+		Settings settings;
+		long seed;
+		String name;
+		File output;
+		File checkpoint;
+		int segments;
+		GenerationStats stats;
+
+		@Override
+		public Job call() {
+			int width = settings.getInt("width", 1024), height = settings.getInt("height", 1024);
+			GuideLines lines = readLines();
+			TreeGenerator generator = new TreeGenerator(width, height, lines);
+			generator.setLeaping(settings.getBoolean("leap", false));
+			generator.setLaunching(settings.getBoolean("launch", false));
+			FileHandle checkpointFile = checkpoint == null ? null : new FileHandle(checkpoint);
+			if (checkpointFile != null && checkpointFile.exists()) {
+				TreeFile.load(checkpointFile, generator, new MappedTreeStorage());
+				generator.resume();
+				System.out.println(output.getPath() + ": resuming at " + generator.getCreatedLines() + " lines");
+			} else {
+				generator.createTree(settings.getBoolean("nearest", false), settings.getInt("lines", 5000), settings.getFloat("angle", 45),
+					settings.getInt("childLimit", 1000), settings.getBoolean("randomStart", false), settings.getFloat("lineLengthMin", 5),
+					settings.getFloat("lineLengthMax", 10), seed);
+			}
+			if (checkpointFile != null) {
+				Checkpointer checkpointer = new Checkpointer(generator, new MappedTreeStorage(), checkpointFile, settings.getFloat("checkpointSeconds", 60));
+				int failures = 0;
+				while (generator.isProcessing()) {
+					generator.runFor(CHECKPOINT_CHECK_MILLIS);
+					checkpointer.update();
+					//the job carries on without them, but a crash would then start it over
+					if (checkpointer.getFailures() != failures) {
+						failures = checkpointer.getFailures();
+						System.err.println(checkpoint.getPath() + ": couldn't write checkpoint: " + checkpointer.getError());
+					}
+				}
+				checkpointer.finishWriting();
+				checkpointer.dispose();
+			} else generator.generate();
+			segments = generator.tree.size;
+			stats = generator.stats;
+			generator.dispose();
+			write(generator);
+			if (checkpointFile != null) checkpointFile.delete();
+			return this;
+		}
+
+		GuideLines readLines() {
+			GuideLines lines = new GuideLines();
+			settings.readLines(lines);
+			lines.sourceSegmentLength = settings.getFloat("sourceSegmentLength", 0);
+			lines.makeAdjustedSourceLines();
+			return lines;
+		}
+
+		void write(TreeGenerator generator) {
+			write(generator.tree, generator.getLines(), generator.getWidth(), generator.getHeight(), generator);
+		}
+
+		/** Writes a tree grown without one generator, as TiledGenerator's, which tree files then hold without a job. */
+		void write(SegmentStore tree, GuideLines lines, int width, int height) {
+			write(tree, lines, width, height, null);
+		}
+
+		private void write(SegmentStore tree, GuideLines lines, int width, int height, TreeGenerator generator) {
+			FileHandle file = new FileHandle(output);
+			file.parent().mkdirs();
+			String format = settings.getString("format", "svg");
+			if (format.equals("svg")) {
+				SVGExporter.exportToSVG(tree, width, height, settings.getInt("precision", SVGExporter.DEFAULT_PRECISION), file);
+			} else if (format.equals("tree")) {
+				if (generator != null) TreeFile.save(generator, file, new MappedTreeStorage());
+				else TreeFile.save(tree, lines, width, height, file, new MappedTreeStorage());
+			} else throw new IllegalArgumentException("Unknown format: " + format);
+			System.out.println(output.getPath() + ": " + segments + " segments");
+		}
+	}
+
+	/** A job's settings, falling back to the defaults. */
+	static class Settings {
+		private final JsonValue job, defaults;
+		private final File base;
+
+		/** Files named by the settings are relative to base. */
+		Settings(JsonValue job, JsonValue defaults, File base) {
+			this.job = job;
+			this.defaults = defaults;
+			this.base = base;
+		}
+
+		private JsonValue get(String name) {
+			JsonValue value = job.get(name);
+			if (value == null && defaults != null) value = defaults.get(name);
+			return value;
+		}
+
+		String getString(String name, String defaultValue) {
+			JsonValue value = get(name);
+			return value == null ? defaultValue : value.asString();
+		}
+
+		int getInt(String name, int defaultValue) {
+			JsonValue value = get(name);
+			return value == null ? defaultValue : value.asInt();
+		}
+
+		long getLong(String name, long defaultValue) {
+			JsonValue value = get(name);
+			return value == null ? defaultValue : value.asLong();
+		}
+
+		float getFloat(String name, float defaultValue) {
+			JsonValue value = get(name);
+			return value == null ? defaultValue : value.asFloat();
+		}
+
+		boolean getBoolean(String name, boolean defaultValue) {
+			JsonValue value = get(name);
+			return value == null ? defaultValue : value.asBoolean();
+		}
+
+		/** Reads the source, dest and exclude lines, then the guides files, whose shapes name their own layers. */
+		void readLines(GuideLines lines) {
+			readLines("source", lines, lines.source);
+			readLines("dest", lines, lines.dest);
+			readLines("exclude", lines, lines.exclude);
+			JsonValue guides = get("guides");
+			if (guides == null) return;
+			if (guides.isString()) importLines(guides.asString(), lines, null);
+			else for (JsonValue file = guides.child; file != null; file = file.next)
+				importLines(file.asString(), lines, null);
+		}
+
+		/** Lines are [x0, y0, x1, y1] arrays, or paths of SVG or CSV files whose lines all go to this layer. */
+		private void readLines(String name, GuideLines lines, SegmentStore segments) {
+			JsonValue value = get(name);
+			if (value == null) return;
+			if (value.isString()) {
+				importLines(value.asString(), lines, segments);
+				return;
+			}
+			for (JsonValue line = value.child; line != null; line = line.next) {
+				if (line.isString()) {
+					importLines(line.asString(), lines, segments);
+					continue;
+				}
+				float[] c = line.asFloatArray();
+				if (c.length != 4) throw new IllegalArgumentException(name + " lines need 4 coordinates: " + line);
+				segments.add(c[0], c[1], c[2], c[3]);
+			}
+		}
+
+		private void importLines(String path, GuideLines lines, SegmentStore layer) {
+			GuideImporter importer = new GuideImporter(lines);
+			importer.tolerance = getFloat("tolerance", importer.tolerance);
+			importer.defaultLayer = layer;
+			importer.namedLayers = layer == null;
+			importer.importFile(new FileHandle(base == null ? new File(path) : new File(base, path)));
+		}
+
+	}
+}
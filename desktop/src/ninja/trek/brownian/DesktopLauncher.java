@@ -11,6 +11,8 @@ public class DesktopLauncher {
 		config.setForegroundFPS(60);
 		config.setTitle("Brownian Tree Generator");
 		config.setWindowedMode(1024, 1024);
-		new Lwjgl3Application(new BrownianTreeGen(), config);
+		BrownianTreeGen app = new BrownianTreeGen(true);
+		app.storage = new MappedTreeStorage();
+		new Lwjgl3Application(app, config);
 	}
 }
@@ -0,0 +1,64 @@
+package ninja.trek.brownian;
+
+import com.badlogic.gdx.files.FileHandle;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes and reads tree files through a FileChannel with direct buffers, so the file is never copied to the heap. It
+ * isn't mapped: a mapping keeps the file open until collected, and on Windows the next checkpoint couldn't replace it.
+ */
+public class MappedTreeStorage extends TreeFile.Storage {
+	@Override
+	public ByteBuffer allocate(int bytes) {
+		return ByteBuffer.allocateDirect(bytes);
+	}
+
+	@Override
+	public void write(ByteBuffer contents, FileHandle file) {
+		file.parent().mkdirs();
+		try (FileChannel channel = FileChannel.open(file.file().toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (contents.hasRemaining()) channel.write(contents);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/** Renames in one step, replacing the target even on Windows, where File.renameTo won't. */
+	@Override
+	public void replace(FileHandle from, FileHandle to) {
+		Path source = from.file().toPath(), target = to.file().toPath();
+		try {
+			try {
+				Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public ByteBuffer read(FileHandle file) {
+		try (FileChannel channel = FileChannel.open(file.file().toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) throw new IOException("Tree file too large: " + file.path());
+			ByteBuffer contents = ByteBuffer.allocateDirect((int)size);
+			while (contents.hasRemaining())
+				if (channel.read(contents) == -1) throw new IOException("Tree file ended early: " + file.path());
+			((Buffer)contents).flip();
+			return contents;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package ninja.trek.brownian;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.GdxNativesLoader;
+import com.badlogic.gdx.utils.JsonReader;
+import com.badlogic.gdx.utils.JsonValue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Grows a tree for every combination of settings in a sweep file, on all cores, and writes a table of the results
+ * with a thumbnail of each tree, to compare configurations without setting each one up by hand.
+ *
+ * <pre>
+ * java ninja.trek.brownian.SweepRunner sweep.json [threads]
+ *
+ * {
+ *   "input": "output.tree",
+ *   "output": "sweep",
+ *   "sweep": { "nearest": [false, true], "angle": { "from": 15, "to": 90, "step": 15 }, "lines": 2000, "seed": [1, 2, 3] }
+ * }
+ * </pre>
+ *
+ * input is a tree file saved from the app, whose guide lines and canvas size the runs share; without one, width,
+ * height and source, dest and exclude lines are read as in {@link BatchGenerator}. Each setting in sweep is a value, a
+ * list of them or a from, to and step range: nearest, randomStart, leap, launch, angle, lineLengthMin, lineLengthMax,
+ * lines, childLimit and seed. The output directory, relative to the sweep file, gets what {@link SweepReport} writes:
+ * run-N.svg and a run-N.png thumbnail per run, results.csv and index.html. The app's Sweep button does the same
+ * for the settings panel's choices over a run of seeds.
+ */
+public class SweepRunner {
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.err.println("usage: SweepRunner sweep.json [threads]");
+			System.exit(1);
+		}
+		File sweepFile = new File(args[0]);
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		File base = sweepFile.getAbsoluteFile().getParentFile();
+		JsonValue root = new JsonReader().parse(new FileHandle(sweepFile));
+
+		GuideLines lines = new GuideLines();
+		int width, height;
+		if (root.has("input")) {
+			TreeGenerator loaded = new TreeGenerator(1, 1, lines);
+			TreeFile.load(new FileHandle(new File(base, root.getString("input"))), loaded, new MappedTreeStorage());
+			width = loaded.getWidth();
+			height = loaded.getHeight();
+		} else {
+			BatchGenerator.Settings settings = new BatchGenerator.Settings(root, null, base);
+			settings.readLines(lines);
+			width = settings.getInt("width", 1024);
+			height = settings.getInt("height", 1024);
+		}
+		//a loaded input file brings the piece length its job used, which only the sweep file overrides
+		if (root.has("sourceSegmentLength")) lines.sourceSegmentLength = root.getFloat("sourceSegmentLength");
+
+		ParameterSweep sweep = new ParameterSweep(width, height, lines);
+		JsonValue values = root.get("sweep");
+		if (values != null) {
+			if (values.has("nearest")) sweep.nearest = booleans(values.get("nearest"));
+			if (values.has("randomStart")) sweep.randomStart = booleans(values.get("randomStart"));
+			if (values.has("leap")) sweep.leap = booleans(values.get("leap"));
+			if (values.has("launch")) sweep.launch = booleans(values.get("launch"));
+			if (values.has("angle")) sweep.angle = floats(values.get("angle"));
+			if (values.has("lineLengthMin")) sweep.lineLengthMin = floats(values.get("lineLengthMin"));
+			if (values.has("lineLengthMax")) sweep.lineLengthMax = floats(values.get("lineLengthMax"));
+			if (values.has("lines")) sweep.lines = ints(values.get("lines"));
+			if (values.has("childLimit")) sweep.childLimit = ints(values.get("childLimit"));
+			if (values.has("seed")) sweep.seed = longs(values.get("seed"));
+		}
+
+		//for the thumbnails' Pixmaps
+		GdxNativesLoader.load();
+		final FileHandle output = new FileHandle(new File(base, root.getString("output", "sweep")));
+		output.mkdirs();
+		final int total = sweep.size(), svgWidth = width, svgHeight = height;
+		final AtomicInteger done = new AtomicInteger();
+		sweep.listener = new ParameterSweep.Listener() {
+			@Override
+			public void done(ParameterSweep.Run run) {
+				SweepReport.writeRun(run, svgWidth, svgHeight, output);
+				System.out.println("run " + run.index + " (" + done.incrementAndGet() + " / " + total + "): " + run.segments + " segments");
+			}
+		};
+		System.out.println("sweeping " + total + " runs on " + threads + " threads");
+		long start = System.nanoTime();
+		List<ParameterSweep.Run> runs = sweep.runAll(threads);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		SweepReport.writeCsv(runs, output.child("results.csv"));
+		SweepReport.writeHtml(runs, output.child("index.html"));
+		System.out.println(String.format(Locale.ROOT, "%d runs in %.2fs, results in %s", total, seconds, output.child("index.html").path()));
+	}
+
+	// a value, a list of them, or a from, to and step range
+	private static List<JsonValue> values(JsonValue value) {
+		List<JsonValue> values = new ArrayList<JsonValue>();
+		if (value.isArray()) {
+			for (JsonValue child = value.child; child != null; child = child.next) values.add(child);
+		} else if (value.isObject()) {
+			double from = value.getDouble("from"), to = value.getDouble("to"), step = value.getDouble("step", 1);
+			if (step <= 0) throw new IllegalArgumentException("step must be positive: " + value);
+			//a little slack, so float steps still reach to
+			for (int i = 0; from + i * step <= to + step * 1e-6; i++) values.add(new JsonValue(from + i * step));
+		} else values.add(value);
+		return values;
+	}
+
+	private static boolean[] booleans(JsonValue value) {
+		List<JsonValue> values = values(value);
+		boolean[] out = new boolean[values.size()];
+		for (int i = 0; i < out.length; i++) out[i] = values.get(i).asBoolean();
+		return out;
+	}
+
+	private static float[] floats(JsonValue value) {
+		List<JsonValue> values = values(value);
+		float[] out = new float[values.size()];
+		for (int i = 0; i < out.length; i++) out[i] = values.get(i).asFloat();
+		return out;
+	}
+
+	private static int[] ints(JsonValue value) {
+		List<JsonValue> values = values(value);
+		int[] out = new int[values.size()];
+		for (int i = 0; i < out.length; i++) out[i] = values.get(i).asInt();
+		return out;
+	}
+
+	private static long[] longs(JsonValue value) {
+		List<JsonValue> values = values(value);
+		long[] out = new long[values.size()];
+		for (int i = 0; i < out.length; i++) out[i] = values.get(i).asLong();
+		return out;
+	}
+}
@@ -0,0 +1,210 @@
+package ninja.trek.brownian;
+
+import com.badlogic.gdx.utils.IntArray;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * One tile's share of a tiled job, as sent from {@link TiledGenerator} to a {@link TileWorker}: the tile and the halo
+ * around it in the tile's own coordinates, the tree and guide lines there, and how many lines to grow. Tree segments
+ * that don't have their parent in the task have parent -1. Both ends check what they read against the task, so a
+ * broken or hostile peer can't make them allocate without bound or merge segments outside the tile.
+ */
+public class TileTask {
+	// most entries any list read can have, and the largest canvas a task can ask for
+	static final int MAX_COUNT = 1 << 24, MAX_SIZE = 1 << 16;
+
+	public int tile;
+	public long seed;
+	public int width, height;
+	/** The tile, inside the halo; walkers stick only from inside it. */
+	public int x0, y0, x1, y1;
+	public int lines;
+	public boolean nearest, randomStart, leap, launch;
+	public float angle, lineLengthMin, lineLengthMax, sourceSegmentLength;
+	public int childLimit;
+	public final SegmentStore tree = new SegmentStore();
+	/** Children each tree segment has in the whole tree; those left to another tile this phase count as full. */
+	public final IntArray childCounts = new IntArray();
+	/** Source lines cut to the tile, so their pieces are the same every time the tile is grown. */
+	public final SegmentStore source = new SegmentStore(), dest = new SegmentStore(), exclude = new SegmentStore();
+	/** Source pieces that stopped in earlier tasks for the tile. */
+	public final IntArray stoppedSources = new IntArray();
+
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(tile);
+		out.writeLong(seed);
+		out.writeInt(width);
+		out.writeInt(height);
+		out.writeInt(x0);
+		out.writeInt(y0);
+		out.writeInt(x1);
+		out.writeInt(y1);
+		out.writeInt(lines);
+		out.writeBoolean(nearest);
+		out.writeBoolean(randomStart);
+		out.writeBoolean(leap);
+		out.writeBoolean(launch);
+		out.writeFloat(angle);
+		out.writeFloat(lineLengthMin);
+		out.writeFloat(lineLengthMax);
+		out.writeFloat(sourceSegmentLength);
+		out.writeInt(childLimit);
+		writeSegments(tree, out);
+		writeInts(childCounts, out);
+		writeSegments(source, out);
+		writeSegments(dest, out);
+		writeSegments(exclude, out);
+		writeInts(stoppedSources, out);
+	}
+
+	public void read(DataInputStream in) throws IOException {
+		tile = in.readInt();
+		seed = in.readLong();
+		width = in.readInt();
+		height = in.readInt();
+		x0 = in.readInt();
+		y0 = in.readInt();
+		x1 = in.readInt();
+		y1 = in.readInt();
+		lines = in.readInt();
+		nearest = in.readBoolean();
+		randomStart = in.readBoolean();
+		leap = in.readBoolean();
+		launch = in.readBoolean();
+		angle = in.readFloat();
+		lineLengthMin = in.readFloat();
+		lineLengthMax = in.readFloat();
+		sourceSegmentLength = in.readFloat();
+		childLimit = in.readInt();
+		if (width < 1 || height < 1 || width > MAX_SIZE || height > MAX_SIZE) throw new IOException("Bad task size: " + width + "x" + height);
+		if (lines < 0 || lines > MAX_COUNT) throw new IOException("Bad task line count: " + lines);
+		readSegments(tree, in, MAX_COUNT);
+		readInts(childCounts, in, tree.size);
+		if (childCounts.size != tree.size) throw new IOException("Child counts don't match the tree");
+		readSegments(source, in, MAX_COUNT);
+		readSegments(dest, in, MAX_COUNT);
+		readSegments(exclude, in, MAX_COUNT);
+		readInts(stoppedSources, in, MAX_COUNT);
+		for (int i = 0; i < tree.size; i++)
+			if (tree.parent[i] < -1 || tree.parent[i] >= tree.size) throw new IOException("Bad parent of task segment " + i);
+	}
+
+	static void writeSegments(SegmentStore segments, DataOutputStream out) throws IOException {
+		out.writeInt(segments.size);
+		for (int i = 0; i < segments.size * 4; i++) out.writeFloat(segments.coords[i]);
+		for (int i = 0; i < segments.size; i++) out.writeInt(segments.parent[i]);
+	}
+
+	// reads at most max segments
+	static void readSegments(SegmentStore segments, DataInputStream in, int max) throws IOException {
+		int size = in.readInt();
+		if (size < 0 || size > max) throw new IOException("Segment count out of range: " + size);
+		segments.clear();
+		segments.ensureCapacity(size);
+		for (int i = 0; i < size * 4; i++) segments.coords[i] = in.readFloat();
+		for (int i = 0; i < size; i++) segments.parent[i] = in.readInt();
+		segments.size = size;
+	}
+
+	static void writeInts(IntArray ints, DataOutputStream out) throws IOException {
+		out.writeInt(ints.size);
+		for (int i = 0; i < ints.size; i++) out.writeInt(ints.get(i));
+	}
+
+	static void readInts(IntArray ints, DataInputStream in, int max) throws IOException {
+		int size = in.readInt();
+		if (size < 0 || size > max) throw new IOException("Count out of range: " + size);
+		ints.clear();
+		ints.ensureCapacity(size);
+		for (int i = 0; i < size; i++) ints.add(in.readInt());
+	}
+
+	/**
+	 * What growing a task changed. Segments are numbered as in the task's tree followed by the new ones, and parents
+	 * use the same numbering.
+	 */
+	public static class Result {
+		public int tile;
+		/** The new segments, numbered from the task's tree size on. */
+		public final SegmentStore added = new SegmentStore();
+		/** Indices of task segments that were split, with their new ends and parents. */
+		public final IntArray changed = new IntArray();
+		public final SegmentStore changedSegments = new SegmentStore();
+		public final IntArray stoppedSources = new IntArray();
+		public int sourcePieces;
+		public final GenerationStats stats = new GenerationStats();
+
+		public void write(DataOutputStream out) throws IOException {
+			out.writeInt(tile);
+			writeSegments(added, out);
+			writeInts(changed, out);
+			writeSegments(changedSegments, out);
+			writeInts(stoppedSources, out);
+			out.writeInt(sourcePieces);
+			out.writeInt(stats.lines);
+			out.writeLong(stats.tries);
+			out.writeLong(stats.steps);
+			out.writeLong(stats.leaps);
+			out.writeLong(stats.collisionTests);
+			out.writeLong(stats.outOfBounds);
+			out.writeLong(stats.excluded);
+			out.writeInt(stats.sourcesStopped);
+			out.writeLong(stats.generationNanos);
+		}
+
+		/** Reads the result of growing task, failing if it isn't one that task could have had. */
+		public void read(DataInputStream in, TileTask task) throws IOException {
+			tile = in.readInt();
+			//each line adds a segment, and may split one
+			readSegments(added, in, (int)Math.min(2L * task.lines, MAX_COUNT));
+			readInts(changed, in, task.tree.size);
+			readSegments(changedSegments, in, task.tree.size);
+			readInts(stoppedSources, in, MAX_COUNT);
+			sourcePieces = in.readInt();
+			stats.reset();
+			stats.lines = in.readInt();
+			stats.tries = in.readLong();
+			stats.steps = in.readLong();
+			stats.leaps = in.readLong();
+			stats.collisionTests = in.readLong();
+			stats.outOfBounds = in.readLong();
+			stats.excluded = in.readLong();
+			stats.sourcesStopped = in.readInt();
+			stats.generationNanos = in.readLong();
+			check(task);
+		}
+
+		private void check(TileTask task) throws IOException {
+			if (tile != task.tile) throw new IOException("Result for tile " + tile + " instead of " + task.tile);
+			if (changedSegments.size != changed.size) throw new IOException("Split segments don't match their indices");
+			if (stats.lines < 0 || stats.lines > task.lines) throw new IOException("Bad line count: " + stats.lines);
+			if (sourcePieces < stoppedSources.size || sourcePieces > MAX_COUNT) throw new IOException("Bad source piece count: " + sourcePieces);
+			for (int i = 0; i < stoppedSources.size; i++)
+				if (stoppedSources.get(i) < 0 || stoppedSources.get(i) >= sourcePieces) throw new IOException("Bad stopped source: " + stoppedSources.get(i));
+			int size = task.tree.size + added.size;
+			for (int k = 0; k < added.size; k++) check(added, k, size, task);
+			for (int c = 0; c < changed.size; c++) {
+				int i = changed.get(c);
+				if (i < 0 || i >= task.tree.size) throw new IOException("Bad split segment: " + i);
+				//splitting moves only the end
+				if (changedSegments.x0(c) != task.tree.x0(i) || changedSegments.y0(c) != task.tree.y0(i))
+					throw new IOException("Split segment " + i + " moved its start");
+				check(changedSegments, c, size, task);
+			}
+		}
+
+		// segments lie in the tile and halo, which is all a task covers, give or take a line
+		private static void check(SegmentStore segments, int k, int size, TileTask task) throws IOException {
+			float margin = task.lineLengthMax + 1;
+			for (int e = 0; e < 4; e++) {
+				float c = segments.coords[k * 4 + e], max = (e % 2 == 0 ? task.width : task.height) + margin;
+				if (!(c >= -margin && c <= max)) throw new IOException("Segment outside the task: " + c);
+			}
+			int parent = segments.parent(k);
+			if (parent < -1 || parent >= size) throw new IOException("Bad parent: " + parent);
+		}
+	}
+}
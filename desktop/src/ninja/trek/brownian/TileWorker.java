@@ -0,0 +1,94 @@
+package ninja.trek.brownian;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * Grows tiles for a {@link TiledGenerator}, one task at a time, until the coordinator hangs up. The coordinator starts
+ * workers on its own machine; more can join from other machines with the address, port and token it prints, the
+ * token either in the TILE_TOKEN environment variable or after the port.
+ *
+ * <pre>
+ * java ninja.trek.brownian.TileWorker host port [token]
+ * </pre>
+ */
+public class TileWorker {
+	private final GuideLines lines = new GuideLines();
+	private final TreeGenerator generator = new TreeGenerator(1, 1, lines);
+
+	public static void main(String[] args) throws IOException {
+		String token = args.length > 2 ? args[2] : System.getenv(TiledGenerator.TOKEN_VARIABLE);
+		if (args.length < 2 || token == null) {
+			System.err.println("usage: TileWorker host port [token], with the token in " + TiledGenerator.TOKEN_VARIABLE + " if not given");
+			System.exit(1);
+		}
+		Socket socket = new Socket(args[0], Integer.parseInt(args[1]));
+		socket.setTcpNoDelay(true);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		out.writeUTF(token);
+		out.flush();
+		TileWorker worker = new TileWorker();
+		TileTask task = new TileTask();
+		TileTask.Result result = new TileTask.Result();
+		while (true) {
+			try {
+				task.read(in);
+			} catch (EOFException e) {
+				break;
+			}
+			worker.grow(task, result);
+			result.write(out);
+			out.flush();
+		}
+		socket.close();
+	}
+
+	/** Grows the task's tile and fills in what changed. */
+	public void grow(TileTask task, TileTask.Result result) {
+		lines.source.clear();
+		lines.source.addAll(task.source);
+		lines.dest.clear();
+		lines.dest.addAll(task.dest);
+		lines.exclude.clear();
+		lines.exclude.addAll(task.exclude);
+		lines.sourceSegmentLength = task.sourceSegmentLength;
+		lines.makeAdjustedSourceLines();
+		for (int i = 0; i < task.stoppedSources.size; i++) lines.stopSource(task.stoppedSources.get(i));
+
+		generator.reset(task.width, task.height);
+		generator.setRegion(task.x0, task.y0, task.x1, task.y1);
+		generator.setTree(task.tree, task.childCounts);
+		generator.setLeaping(task.leap);
+		generator.setLaunching(task.launch);
+		generator.createTree(task.nearest, task.lines, task.angle, task.childLimit, task.randomStart, task.lineLengthMin,
+			task.lineLengthMax, task.seed);
+		generator.generate();
+
+		SegmentStore tree = generator.tree, before = task.tree;
+		result.tile = task.tile;
+		result.added.clear();
+		result.changed.clear();
+		result.changedSegments.clear();
+		//splitting a segment only moves its end and parent
+		for (int i = 0; i < before.size; i++) {
+			if (tree.x1(i) == before.x1(i) && tree.y1(i) == before.y1(i) && tree.parent(i) == before.parent(i)) continue;
+			result.changed.add(i);
+			result.changedSegments.add(tree.x0(i), tree.y0(i), tree.x1(i), tree.y1(i), tree.parent(i));
+		}
+		for (int i = before.size; i < tree.size; i++)
+			result.added.add(tree.x0(i), tree.y0(i), tree.x1(i), tree.y1(i), tree.parent(i));
+		result.stoppedSources.clear();
+		for (int i = 0; i < lines.adjustedSource.size; i++)
+			if (lines.shouldStopGenerating[i]) result.stoppedSources.add(i);
+		result.sourcePieces = lines.adjustedSource.size;
+		GenerationStats stats = result.stats;
+		stats.reset();
+		stats.add(generator.stats);
+	}
+}
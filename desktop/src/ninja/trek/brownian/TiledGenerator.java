@@ -0,0 +1,512 @@
+package ninja.trek.brownian;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.IntIntMap;
+import com.badlogic.gdx.utils.IntSet;
+import com.badlogic.gdx.utils.JsonReader;
+import com.badlogic.gdx.utils.JsonValue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Grows trees on canvases far larger than one generator's grids can hold by splitting them into tiles, each grown
+ * by a {@link TileWorker} process with a halo of the tree around it to collide with. Tiles are grown in rounds of
+ * four phases, a checkerboard colour each, so tiles grown at the same time are a tile apart and can't touch each
+ * other's segments; between phases the coordinator merges what each tile added and split into the one tree.
+ *
+ * <pre>
+ * java ninja.trek.brownian.TiledGenerator jobs.json [workers] [port] [bind address]
+ * </pre>
+ *
+ * Takes the same job files as {@link BatchGenerator}, running the jobs one after another across all the workers,
+ * plus tileSize (default 2048), halo (default a quarter of the tile) and tileLines, the most lines a tile grows per
+ * phase (default 1000). halo + 2 * lineLengthMax has to fit in a tile. Walkers are lost once they leave the halo, so
+ * tiles with nothing in reach don't grow, and source lines only grow towards what is within a halo of them. Starts
+ * the given number of worker processes, one per core by default. It listens on the loopback address unless given
+ * another to bind, such as 0.0.0.0, in which case more workers can join from other machines with TileWorker, the
+ * port, which is random unless given, and the token it prints. The token is random unless set in TILE_TOKEN; workers
+ * that don't send it are hung up on.
+ */
+public class TiledGenerator {
+	/** Environment variable holding the token workers send to join. */
+	public static final String TOKEN_VARIABLE = "TILE_TOKEN";
+	// how long tasks wait with no worker connected at all before giving up on the job
+	private static final long WORKER_TIMEOUT_SECONDS = 60;
+	// how long a new connection has to send the token
+	private static final int HANDSHAKE_TIMEOUT_MILLIS = 10000;
+
+	private final ServerSocket server;
+	private final String token;
+	private final LinkedBlockingQueue<Connection> idle = new LinkedBlockingQueue<Connection>();
+	// workers connected and not yet lost, idle or busy
+	private final AtomicInteger connected = new AtomicInteger();
+	private final List<Process> processes = new ArrayList<Process>();
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 1) {
+			System.err.println("usage: TiledGenerator jobs.json [workers] [port] [bind address]");
+			System.exit(1);
+		}
+		File jobFile = new File(args[0]);
+		int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int port = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+		InetAddress address = args.length > 3 ? InetAddress.getByName(args[3]) : InetAddress.getLoopbackAddress();
+		String token = System.getenv(TOKEN_VARIABLE);
+		if (token == null) token = randomToken();
+		JsonValue root = new JsonReader().parse(new FileHandle(jobFile));
+		List<BatchGenerator.Job> jobs = BatchGenerator.readJobs(root, jobFile);
+
+		TiledGenerator generator = new TiledGenerator(address, port, token);
+		System.out.println("listening on " + address.getHostAddress() + " port " + generator.getPort() + ", starting " + workers + " workers");
+		if (!address.isLoopbackAddress())
+			System.out.println("more workers can join with " + TOKEN_VARIABLE + "=" + token + " java " + TileWorker.class.getName() + " host " + generator.getPort());
+		generator.startWorkers(workers);
+		List<BatchGenerator.Job> done = new ArrayList<BatchGenerator.Job>();
+		int failed = 0;
+		try {
+			for (BatchGenerator.Job job : jobs) {
+				try {
+					generator.run(job);
+					done.add(job);
+				} catch (RuntimeException e) {
+					failed++;
+					System.err.println("job failed: " + e);
+				}
+			}
+		} finally {
+			generator.close();
+		}
+		if (root.has("stats")) BatchGenerator.writeStats(done, new FileHandle(new File(jobFile.getAbsoluteFile().getParentFile(), root.getString("stats"))));
+		if (failed > 0) System.exit(2);
+	}
+
+	/** Listens on the address and port, 0 for any free one, for workers sending token. */
+	public TiledGenerator(InetAddress address, int port, String token) throws IOException {
+		this.token = token;
+		server = new ServerSocket(port, 50, address);
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (true) {
+					Socket socket;
+					try {
+						socket = server.accept();
+					} catch (IOException e) {
+						return; //closed
+					}
+					try {
+						Connection connection = new Connection(socket);
+						if (!connection.handshake(TiledGenerator.this.token)) {
+							System.err.println("hung up on " + socket.getRemoteSocketAddress() + ": wrong token");
+							connection.close();
+							continue;
+						}
+						connected.incrementAndGet();
+						idle.add(connection);
+					} catch (IOException e) {
+						System.err.println("hung up on " + socket.getRemoteSocketAddress() + ": " + e);
+						try {
+							socket.close();
+						} catch (IOException ignored) {
+							//already gone
+						}
+					}
+				}
+			}
+		}, "tile acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	static String randomToken() {
+		byte[] bytes = new byte[16];
+		new SecureRandom().nextBytes(bytes);
+		StringBuilder token = new StringBuilder();
+		for (byte b : bytes) token.append(String.format(Locale.ROOT, "%02x", b & 0xff));
+		return token.toString();
+	}
+
+	/** Starts worker processes on this machine, on the same class path, passing the token through the environment. */
+	public void startWorkers(int count) throws IOException {
+		String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+		InetAddress address = server.getInetAddress();
+		String host = address.isAnyLocalAddress() ? InetAddress.getLoopbackAddress().getHostAddress() : address.getHostAddress();
+		for (int i = 0; i < count; i++) {
+			ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), TileWorker.class.getName(),
+				host, Integer.toString(getPort()));
+			builder.environment().put(TOKEN_VARIABLE, token);
+			processes.add(builder.inheritIO().start());
+		}
+	}
+
+	/** Hangs up on the workers, which stops them, and waits for the local ones to exit. */
+	public void close() throws InterruptedException {
+		executor.shutdown();
+		try {
+			server.close();
+		} catch (IOException e) {
+			//nothing left to do with it
+		}
+		for (Connection connection : idle) connection.close();
+		for (Process process : processes) process.waitFor();
+	}
+
+	/** Grows the job's tree tile by tile and writes it out. */
+	public void run(BatchGenerator.Job job) {
+		new TiledJob(job).run();
+	}
+
+	private TileTask.Result grow(final TileTask task) throws InterruptedException {
+		long deadline = 0;
+		while (true) {
+			Connection connection = idle.poll(1, TimeUnit.SECONDS);
+			if (connection == null) {
+				//busy workers take as long as their tiles need; only give up once there are none left
+				if (connected.get() > 0) deadline = 0;
+				else if (deadline == 0) deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WORKER_TIMEOUT_SECONDS);
+				else if (System.nanoTime() > deadline) throw new RuntimeException("No tile worker connected for " + WORKER_TIMEOUT_SECONDS + "s");
+				continue;
+			}
+			try {
+				TileTask.Result result = connection.grow(task);
+				idle.add(connection);
+				return result;
+			} catch (IOException e) {
+				//tasks don't depend on who grows them, so another worker can take it over
+				System.err.println("lost tile worker: " + e);
+				connected.decrementAndGet();
+				connection.close();
+			}
+		}
+	}
+
+	private class TiledJob {
+		final BatchGenerator.Job job;
+		final BatchGenerator.Settings settings;
+		final int width, height, tileSize, halo, tileLines, cols, rows, target, childLimit;
+		final float lineLengthMin, lineLengthMax;
+		final GuideLines lines;
+		final SegmentStore tree = new SegmentStore();
+		// how many children each tree segment has
+		final IntArray children = new IntArray();
+		// segments whose free child slots went to a task this phase; other tasks see them as full
+		final IntSet reserved = new IntSet();
+		// tree segments by the tile their start is in
+		final IntArray[] tileSegments;
+		final IntArray[] tileStopped;
+		final int[] tilePieces;
+		final GenerationStats stats = new GenerationStats();
+		final SplitRandom random;
+		// scratch while building a task
+		final IntArray ids = new IntArray();
+		final IntIntMap local = new IntIntMap();
+		final IntSet changedThisPhase = new IntSet();
+		final IntArray parents = new IntArray();
+
+		TiledJob(BatchGenerator.Job job) {
+			this.job = job;
+			settings = job.settings;
+			width = settings.getInt("width", 1024);
+			height = settings.getInt("height", 1024);
+			tileSize = settings.getInt("tileSize", 2048);
+			halo = settings.getInt("halo", tileSize / 4);
+			tileLines = settings.getInt("tileLines", 1000);
+			target = settings.getInt("lines", 5000);
+			childLimit = settings.getInt("childLimit", 1000);
+			float min = settings.getFloat("lineLengthMin", 5), max = settings.getFloat("lineLengthMax", 10);
+			lineLengthMin = Math.min(min, max);
+			lineLengthMax = Math.max(min, max);
+			if (halo + 2 * lineLengthMax > tileSize)
+				throw new IllegalArgumentException("halo + 2 * lineLengthMax doesn't fit in tileSize " + tileSize);
+			lines = job.readLines();
+			cols = MathUtils.ceil((float)width / tileSize);
+			rows = MathUtils.ceil((float)height / tileSize);
+			tileSegments = new IntArray[cols * rows];
+			tileStopped = new IntArray[cols * rows];
+			tilePieces = new int[cols * rows];
+			for (int i = 0; i < cols * rows; i++) {
+				tileSegments[i] = new IntArray();
+				tileStopped[i] = new IntArray();
+				tilePieces[i] = -1;
+			}
+			random = new SplitRandom(job.seed);
+		}
+
+		void run() {
+			long start = System.nanoTime();
+			List<TileTask> tasks = new ArrayList<TileTask>();
+			List<IntArray> taskIds = new ArrayList<IntArray>();
+			int round = 0;
+			while (stats.lines < target) {
+				int before = stats.lines, grown = 0;
+				for (int phase = 0; phase < 4 && stats.lines < target; phase++) {
+					tasks.clear();
+					taskIds.clear();
+					reserved.clear();
+					for (int ty = phase / 2; ty < rows; ty += 2)
+						for (int tx = phase % 2; tx < cols; tx += 2) {
+							TileTask task = task(tx, ty);
+							if (task == null) continue;
+							tasks.add(task);
+							taskIds.add(new IntArray(ids));
+						}
+					if (tasks.isEmpty()) continue;
+					//shares out what's left, so the last phase doesn't overshoot by much
+					int quota = Math.min(tileLines, (target - stats.lines + tasks.size() - 1) / tasks.size());
+					float from = (float)stats.lines / target, to = Math.min(1, from + (float)quota / target);
+					for (TileTask task : tasks) {
+						task.lines = quota;
+						task.lineLengthMax = MathUtils.lerp(lineLengthMax, lineLengthMin, from);
+						task.lineLengthMin = MathUtils.lerp(lineLengthMax, lineLengthMin, to);
+						task.seed = random.nextLong();
+					}
+					List<TileTask.Result> results = growAll(tasks);
+					changedThisPhase.clear();
+					for (int i = 0; i < results.size(); i++) merge(tasks.get(i), taskIds.get(i), results.get(i));
+					grown += tasks.size();
+				}
+				round++;
+				System.out.println(job.name + ": round " + round + ", " + grown + " tiles, " + stats.lines + " / " + target + " lines");
+				if (stats.lines == before) break;
+			}
+			stats.generationNanos = System.nanoTime() - start;
+			job.segments = tree.size;
+			job.stats = stats;
+
+			job.write(tree, lines, width, height);
+			System.out.println(String.format(Locale.ROOT, "%s: %.2fs, %.0f lines/s", job.name, stats.generationNanos / 1e9,
+				stats.linesPerSecond()));
+		}
+
+		List<TileTask.Result> growAll(List<TileTask> tasks) {
+			List<Callable<TileTask.Result>> calls = new ArrayList<Callable<TileTask.Result>>();
+			for (final TileTask task : tasks)
+				calls.add(new Callable<TileTask.Result>() {
+					@Override
+					public TileTask.Result call() throws InterruptedException {
+						return grow(task);
+					}
+				});
+			List<TileTask.Result> results = new ArrayList<TileTask.Result>();
+			try {
+				for (Future<TileTask.Result> future : executor.invokeAll(calls)) results.add(future.get());
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+			return results;
+		}
+
+		// the task for a tile, with the global index of each of its tree segments in ids, or null if nothing can stick there
+		TileTask task(int tx, int ty) {
+			int tile = ty * cols + tx;
+			int cx0 = tx * tileSize, cy0 = ty * tileSize, cx1 = Math.min(cx0 + tileSize, width), cy1 = Math.min(cy0 + tileSize, height);
+			int ox = Math.max(0, cx0 - halo), oy = Math.max(0, cy0 - halo);
+			int ex = Math.min(width, cx1 + halo), ey = Math.min(height, cy1 + halo);
+			TileTask task = new TileTask();
+			task.tile = tile;
+			addInside(lines.dest, ox, oy, ex, ey, task.dest);
+			addInside(lines.exclude, ox, oy, ex, ey, task.exclude);
+			boolean randomStart = settings.getBoolean("randomStart", false);
+			if (!randomStart) {
+				for (int i = 0; i < lines.source.size; i++) clip(lines.source, i, cx0, cy0, cx1, cy1, ox, oy, task.source);
+				if (task.source.size == 0 || tileStopped[tile].size == tilePieces[tile]) return null;
+			}
+
+			//a tile only sees segments starting in the tiles next to it, as none are long enough to reach further
+			ids.clear();
+			for (int y = Math.max(0, ty - 1); y <= Math.min(rows - 1, ty + 1); y++)
+				for (int x = Math.max(0, tx - 1); x <= Math.min(cols - 1, tx + 1); x++) {
+					IntArray segments = tileSegments[y * cols + x];
+					for (int s = 0; s < segments.size; s++) {
+						int i = segments.get(s);
+						if (overlaps(tree, i, ox, oy, ex, ey)) ids.add(i);
+					}
+				}
+			if (ids.size == 0 && task.dest.size == 0) return null;
+			//in tree order, so ties between hits go the same way as on one canvas
+			ids.sort();
+			local.clear();
+			for (int l = 0; l < ids.size; l++) local.put(ids.get(l), l);
+			for (int l = 0; l < ids.size; l++) {
+				int i = ids.get(l);
+				task.tree.add(tree.x0(i) - ox, tree.y0(i) - oy, tree.x1(i) - ox, tree.y1(i) - oy, local.get(tree.parent(i), -1));
+				//with halos wide enough for tiles grown at once to share segments, only the first may add to each
+				task.childCounts.add(childLimit > 0 && !reserved.add(i) ? childLimit : children.get(i));
+			}
+
+			task.width = ex - ox;
+			task.height = ey - oy;
+			task.x0 = cx0 - ox;
+			task.y0 = cy0 - oy;
+			task.x1 = cx1 - ox;
+			task.y1 = cy1 - oy;
+			task.nearest = settings.getBoolean("nearest", false);
+			task.randomStart = randomStart;
+			task.leap = settings.getBoolean("leap", false);
+			task.launch = settings.getBoolean("launch", false);
+			task.angle = settings.getFloat("angle", 45);
+			task.childLimit = childLimit;
+			//every tile cuts its sources into pieces of the same length as the whole lines would be
+			task.sourceSegmentLength = lines.getSplitLength();
+			task.stoppedSources.addAll(tileStopped[tile]);
+			return task;
+		}
+
+		// takes a tile's additions and splits into the tree, checking they keep to the child limit
+		void merge(TileTask task, IntArray ids, TileTask.Result result) {
+			int tile = result.tile, tx = tile % cols, ty = tile / cols;
+			float ox = Math.max(0, tx * tileSize - halo), oy = Math.max(0, ty * tileSize - halo);
+			int base = tree.size, before = task.tree.size;
+			for (int k = 0; k < result.added.size; k++) {
+				SegmentStore added = result.added;
+				int i = tree.add(added.x0(k) + ox, added.y0(k) + oy, added.x1(k) + ox, added.y1(k) + oy,
+					global(added.parent(k), ids, before, base));
+				tileSegments[tileOf(tree.x0(i), tree.y0(i))].add(i);
+				children.add(0);
+			}
+			parents.clear();
+			for (int c = 0; c < result.changed.size; c++) {
+				int l = result.changed.get(c), i = ids.get(l);
+				//phases keep tiles apart, so this only trips if a segment was far longer than a step
+				if (!changedThisPhase.add(i)) throw new RuntimeException("Tiles grown at once both split segment " + i);
+				int parent = tree.parent(i);
+				parents.add(parent);
+				SegmentStore changed = result.changedSegments;
+				tree.setEnd(i, changed.x1(c) + ox, changed.y1(c) + oy);
+				tree.setParent(i, global(changed.parent(c), ids, before, base));
+				//a segment whose parent was outside the task keeps it, through the segments it was split into
+				if (task.tree.parent(l) != -1 || parent == -1) continue;
+				int top = i;
+				while (tree.parent(top) >= base) top = tree.parent(top);
+				if (top >= base && tree.parent(top) == -1) tree.setParent(top, parent);
+			}
+			//split segments move from their old parents to their new ones, and added ones are new children
+			for (int c = 0; c < result.changed.size; c++) {
+				if (parents.get(c) != -1) children.incr(parents.get(c), -1);
+				addChild(tree.parent(ids.get(result.changed.get(c))), tile);
+			}
+			for (int i = base; i < tree.size; i++) addChild(tree.parent(i), tile);
+			tileStopped[tile].clear();
+			tileStopped[tile].addAll(result.stoppedSources);
+			tilePieces[tile] = result.sourcePieces;
+			stats.add(result.stats);
+		}
+
+		void addChild(int parent, int tile) {
+			if (parent == -1) return;
+			children.incr(parent, 1);
+			if (childLimit > 0 && children.get(parent) > childLimit)
+				throw new RuntimeException("Tile " + tile + " gave segment " + parent + " more than " + childLimit + " children");
+		}
+
+		// a task's numbering to the tree's: its tree segments, then the ones it added
+		int global(int l, IntArray ids, int before, int base) {
+			if (l == -1) return -1;
+			return l < before ? ids.get(l) : base + l - before;
+		}
+
+		int tileOf(float x, float y) {
+			int tx = MathUtils.clamp((int)(x / tileSize), 0, cols - 1), ty = MathUtils.clamp((int)(y / tileSize), 0, rows - 1);
+			return ty * cols + tx;
+		}
+	}
+
+	private static boolean overlaps(SegmentStore segments, int i, float x0, float y0, float x1, float y1) {
+		return Math.max(segments.x0(i), segments.x1(i)) >= x0 && Math.min(segments.x0(i), segments.x1(i)) <= x1
+			&& Math.max(segments.y0(i), segments.y1(i)) >= y0 && Math.min(segments.y0(i), segments.y1(i)) <= y1;
+	}
+
+	// adds the segments overlapping the box, moved so the box starts at 0, 0
+	private static void addInside(SegmentStore segments, float x0, float y0, float x1, float y1, SegmentStore out) {
+		for (int i = 0; i < segments.size; i++)
+			if (overlaps(segments, i, x0, y0, x1, y1))
+				out.add(segments.x0(i) - x0, segments.y0(i) - y0, segments.x1(i) - x0, segments.y1(i) - y0);
+	}
+
+	// adds the part of segment i inside the box, if any, moved by -ox, -oy
+	private static void clip(SegmentStore segments, int i, float x0, float y0, float x1, float y1, float ox, float oy, SegmentStore out) {
+		float ax = segments.x0(i), ay = segments.y0(i), dx = segments.x1(i) - ax, dy = segments.y1(i) - ay;
+		//Liang-Barsky: narrow the part of the line inside each edge
+		float[] p = {-dx, dx, -dy, dy}, q = {ax - x0, x1 - ax, ay - y0, y1 - ay};
+		float t0 = 0, t1 = 1;
+		for (int e = 0; e < 4; e++) {
+			if (p[e] == 0) {
+				if (q[e] < 0) return;
+				continue;
+			}
+			float t = q[e] / p[e];
+			if (p[e] < 0) t0 = Math.max(t0, t);
+			else t1 = Math.min(t1, t);
+		}
+		if (t0 >= t1) return;
+		out.add(ax + dx * t0 - ox, ay + dy * t0 - oy, ax + dx * t1 - ox, ay + dy * t1 - oy);
+	}
+
+	/** A worker on the other end of a socket. */
+	private static class Connection {
+		final Socket socket;
+		final DataInputStream in;
+		final DataOutputStream out;
+
+		Connection(Socket socket) throws IOException {
+			this.socket = socket;
+			socket.setTcpNoDelay(true);
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+
+		// whether the worker sent the token before the timeout
+		boolean handshake(String token) throws IOException {
+			socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+			byte[] sent = in.readUTF().getBytes("UTF-8");
+			socket.setSoTimeout(0);
+			return MessageDigest.isEqual(sent, token.getBytes("UTF-8"));
+		}
+
+		TileTask.Result grow(TileTask task) throws IOException {
+			task.write(out);
+			out.flush();
+			TileTask.Result result = new TileTask.Result();
+			result.read(in, task);
+			return result;
+		}
+
+		void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				//already gone
+			}
+		}
+	}
+}